@@ -0,0 +1,14 @@
+package com.getaji.bmshashwatcher;
+
+import java.awt.*;
+import java.awt.datatransfer.Transferable;
+
+/**
+ * AWTを通してシステムのクリップボードから内容を取得するClipboardSource
+ */
+public class AwtClipboardSource implements ClipboardSource {
+    @Override
+    public Transferable getContents() throws IllegalStateException {
+        return Toolkit.getDefaultToolkit().getSystemClipboard().getContents(null);
+    }
+}
@@ -0,0 +1,252 @@
+package com.getaji.bmshashwatcher;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * クリップボードの内容を識別するための軽量な指紋
+ * 内容をStringにせずReaderやInputStreamから読みながら計算するので、変更がない間は大きな文字列を確保しない
+ * バイト列で渡される形式は文字に変換せずにバイト列のまま計算する
+ * テキストが同じでもHTMLやURIリストの内容（リンク先など）が異なれば別の指紋になる
+ *
+ * @param flavorsHash 利用できるデータフレーバーの組のハッシュ値
+ * @param length      読み込んだ内容の長さ（形式ごとの文字数またはバイト数の合計）
+ * @param contentHash テキストとHTML・URIリストの内容の64ビットのハッシュ値（8バイトずつ混ぜる）
+ */
+public record ClipboardFingerprint(int flavorsHash, long length, long contentHash) {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * クリップボードの内容から指紋を計算する
+     * ClipboardWatcherがハッシュを検出するHTMLとURIリストの形式も読み込んで含める
+     *
+     * @param contents クリップボードの内容
+     * @param buffer   読み込みに使うバッファ（呼び出し元で使い回す）
+     * @return 指紋
+     * @throws UnsupportedFlavorException テキストとして読めない内容
+     * @throws IOException                読み込みに失敗
+     */
+    public static ClipboardFingerprint of(Transferable contents, char[] buffer)
+            throws UnsupportedFlavorException, IOException {
+        return of(contents, buffer, new byte[buffer.length]);
+    }
+
+    /**
+     * クリップボードの内容から指紋を計算する
+     * ClipboardWatcherがハッシュを検出するHTMLとURIリストの形式も読み込んで含める
+     *
+     * @param contents   クリップボードの内容
+     * @param charBuffer 文字の読み込みに使うバッファ（呼び出し元で使い回す）
+     * @param byteBuffer バイト列の読み込みに使うバッファ（呼び出し元で使い回す）
+     * @return 指紋
+     * @throws UnsupportedFlavorException テキストとして読めない内容
+     * @throws IOException                読み込みに失敗
+     */
+    public static ClipboardFingerprint of(Transferable contents, char[] charBuffer, byte[] byteBuffer)
+            throws UnsupportedFlavorException, IOException {
+        final DataFlavor[] flavors = contents.getTransferDataFlavors();
+        return compute(contents, flavors, new Hasher(charBuffer, byteBuffer, Long.MAX_VALUE));
+    }
+
+    /**
+     * クリップボードの内容がこの指紋と同じかを確かめる
+     * データフレーバーの組を先に比べ、異なれば内容を読まない
+     * 内容は読んだ長さがこの指紋の長さを超えた時点で読むのをやめる
+     *
+     * @param contents   クリップボードの内容
+     * @param charBuffer 文字の読み込みに使うバッファ
+     * @param byteBuffer バイト列の読み込みに使うバッファ
+     * @return 同じ内容か
+     * @throws UnsupportedFlavorException テキストとして読めない内容
+     * @throws IOException                読み込みに失敗
+     */
+    public boolean matches(Transferable contents, char[] charBuffer, byte[] byteBuffer)
+            throws UnsupportedFlavorException, IOException {
+        final DataFlavor[] flavors = contents.getTransferDataFlavors();
+        if (Arrays.hashCode(flavors) != flavorsHash) return false;
+        return equals(compute(contents, flavors, new Hasher(charBuffer, byteBuffer, length)));
+    }
+
+    /**
+     * テキストとHTML・URIリストの形式を順に読み込んで指紋を計算する
+     *
+     * @return 指紋（読んだ長さがhasherの上限を超えた場合はnull）
+     */
+    private static ClipboardFingerprint compute(Transferable contents, DataFlavor[] flavors,
+                                                Hasher hasher)
+            throws UnsupportedFlavorException, IOException {
+        // text/htmlなどが優先されないように、stringFlavorと同じ内容を表すtext/plainから選ぶ
+        // text/plainがなければ文字列として取得する（この場合は文字列が確保される）
+        DataFlavor textFlavor = DataFlavor.selectBestTextFlavor(
+                Arrays.stream(flavors)
+                        .filter(flavor -> flavor.isMimeTypeEqual("text/plain"))
+                        .toArray(DataFlavor[]::new)
+        );
+        if (textFlavor == null) {
+            if (!contents.isDataFlavorSupported(DataFlavor.stringFlavor)) {
+                throw new UnsupportedFlavorException(DataFlavor.stringFlavor);
+            }
+            textFlavor = DataFlavor.stringFlavor;
+        }
+        if (!hasher.update(textFlavor, contents.getTransferData(textFlavor))) return null;
+        for (final String mimeType : ClipboardWatcher.EXTRA_TEXT_MIME_TYPES) {
+            final DataFlavor flavor = ClipboardWatcher.selectStreamingFlavor(flavors, mimeType);
+            if (flavor == null) continue;
+            // 形式の区切り（内容を繋げただけでは区別できない組み合わせがあるため）
+            hasher.update(mimeType);
+            try {
+                if (!hasher.update(flavor, contents.getTransferData(flavor))) return null;
+            } catch (UnsupportedFlavorException | IOException e) {
+                // 読めない形式はClipboardWatcherでも無視されるので、読めなかったことだけを含める
+                hasher.update("unavailable");
+            }
+        }
+        return new ClipboardFingerprint(Arrays.hashCode(flavors), hasher.length, hasher.hash);
+    }
+
+    /**
+     * Readerの内容から指紋を計算する
+     *
+     * @param flavorsHash データフレーバーの組のハッシュ値
+     * @param reader      テキスト（閉じない）
+     * @param buffer      読み込みに使うバッファ
+     * @return 指紋
+     * @throws IOException 読み込みに失敗
+     */
+    public static ClipboardFingerprint of(int flavorsHash, Reader reader, char[] buffer)
+            throws IOException {
+        final Hasher hasher = new Hasher(buffer, null, Long.MAX_VALUE);
+        hasher.update(reader);
+        return new ClipboardFingerprint(flavorsHash, hasher.length, hasher.hash);
+    }
+
+    /**
+     * 読み込んだ長さとハッシュ値を積み上げる
+     * 1バイトずつ掛け算すると遅いので、8バイト（4文字）ずつまとめて混ぜる
+     * 読み込みの区切りによらず同じ値になるように、端数は次の読み込みに持ち越し、形式ごとに混ぜる
+     */
+    private static final class Hasher {
+        private final char[] charBuffer;
+        private final byte[] byteBuffer;
+        private final long limit;
+        private long length = 0;
+        private long hash = OFFSET_BASIS;
+        private long word = 0;
+        private int bits = 0;
+
+        Hasher(char[] charBuffer, byte[] byteBuffer, long limit) {
+            this.charBuffer = charBuffer;
+            this.byteBuffer = byteBuffer;
+            this.limit = limit;
+        }
+
+        /**
+         * 形式の内容を読み込む（ReaderとInputStreamは閉じる）
+         *
+         * @return 上限を超えずに読み終えたか
+         * @throws UnsupportedFlavorException 文字列、Reader、InputStreamのいずれでもない
+         */
+        boolean update(DataFlavor flavor, Object data) throws UnsupportedFlavorException, IOException {
+            if (data instanceof InputStream stream) {
+                try (stream) {
+                    return update(stream);
+                }
+            }
+            if (data instanceof Reader reader) {
+                try (reader) {
+                    return update(reader);
+                }
+            }
+            if (data instanceof CharSequence s) {
+                if (length + s.length() > limit) return false;
+                update(s);
+                length += s.length();
+                return true;
+            }
+            throw new UnsupportedFlavorException(flavor);
+        }
+
+        boolean update(Reader reader) throws IOException {
+            int read;
+            while ((read = reader.read(charBuffer)) != -1) {
+                int i = 0;
+                while (i < read && bits != 0) {
+                    add(charBuffer[i++], Character.SIZE);
+                }
+                for (; i + 4 <= read; i += 4) {
+                    mix(charBuffer[i] | (long) charBuffer[i + 1] << 16
+                            | (long) charBuffer[i + 2] << 32 | (long) charBuffer[i + 3] << 48);
+                }
+                while (i < read) {
+                    add(charBuffer[i++], Character.SIZE);
+                }
+                length += read;
+                if (length > limit) return false;
+            }
+            flush();
+            return true;
+        }
+
+        private boolean update(InputStream stream) throws IOException {
+            int read;
+            while ((read = stream.read(byteBuffer)) != -1) {
+                int i = 0;
+                while (i < read && bits != 0) {
+                    add(byteBuffer[i++] & 0xff, Byte.SIZE);
+                }
+                for (; i + 8 <= read; i += 8) {
+                    mix((long) LONG_VIEW.get(byteBuffer, i));
+                }
+                while (i < read) {
+                    add(byteBuffer[i++] & 0xff, Byte.SIZE);
+                }
+                length += read;
+                if (length > limit) return false;
+            }
+            flush();
+            return true;
+        }
+
+        void update(CharSequence s) {
+            for (int i = 0; i < s.length(); i++) {
+                add(s.charAt(i), Character.SIZE);
+            }
+            flush();
+        }
+
+        private void add(int value, int width) {
+            word |= (long) value << bits;
+            bits += width;
+            if (bits == Long.SIZE) {
+                mix(word);
+                word = 0;
+                bits = 0;
+            }
+        }
+
+        /**
+         * 端数を混ぜる（端数の長さも含めて、区切りの位置が異なる内容を区別する）
+         */
+        private void flush() {
+            mix(word);
+            mix(bits);
+            word = 0;
+            bits = 0;
+        }
+
+        private void mix(long value) {
+            hash = Long.rotateLeft((hash ^ value) * MULTIPLIER, 31);
+        }
+    }
+}
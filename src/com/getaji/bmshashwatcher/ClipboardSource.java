@@ -0,0 +1,18 @@
+package com.getaji.bmshashwatcher;
+
+import java.awt.datatransfer.Transferable;
+
+/**
+ * ClipboardWatcherが監視するクリップボードの内容の取得元
+ * 既定はシステムのクリップボード（AwtClipboardSource）
+ */
+@FunctionalInterface
+public interface ClipboardSource {
+    /**
+     * 現在の内容を取得する
+     *
+     * @return 内容（空ならnull）
+     * @throws IllegalStateException クリップボードが利用できない
+     */
+    Transferable getContents() throws IllegalStateException;
+}
@@ -1,44 +1,129 @@
 package com.getaji.bmshashwatcher;
 
-import java.awt.*;
+import com.getaji.bmshashwatcher.lib.HashStreamScanner;
+import com.getaji.bmshashwatcher.lib.LruCache;
+import com.getaji.bmshashwatcher.lib.ParallelHashExtractor;
+import com.getaji.bmshashwatcher.model.HashKey;
+
 import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
  * クリップボードを監視するクラス
- * 値を保持し、新たな値が文字列かつ異なる値なら状態を更新して通知する
+ * 値の指紋を保持し、新たな値が文字列かつ指紋が異なるなら状態を更新して通知する
+ * 変更がない間は値をStringとして取得せず、形式の組が変わった場合は内容を読まずに変更と判断する
+ * 最近の値の指紋と検出したハッシュを一定数保持し、それらの値に戻った場合は走査せずに通知する
+ * 値の取得元はClipboardSourceで差し替えられる（既定はシステムのクリップボード）
+ * 文字列の他に、HTMLとURIリストの形式からもハッシュを検出する（リンク先のURLにのみ含まれるハッシュのため）
+ * 監視間隔は状況に応じて変わる。変更を検出した直後はしばらくBURST_DELAYで監視し、
+ * その後は設定された間隔から始めて、変更がない間は上限まで倍々に延ばす
  */
 public class ClipboardWatcher {
     public static final int DELAY_LOWER_LIMIT = 100;
 
-    private TimerTask timerTask;
-    private Timer timer;
-    private String value = "";
-    private long delay;
-    private boolean isRunning = false;
-    private Consumer<String> callback;
+    /**
+     * 変更を検出した直後の監視間隔（ミリ秒）
+     */
+    public static final long BURST_DELAY = 50;
+
+    /**
+     * 変更を検出した後にBURST_DELAYで監視し続ける時間（ミリ秒）
+     */
+    public static final long BURST_DURATION = 3000;
+
+    /**
+     * 最近の値を保持する件数の既定値
+     */
+    public static final int DEFAULT_RECENT_CONTENT_CACHE_SIZE = 32;
+
+    /**
+     * 文字列の他にハッシュを検出する形式
+     * 内容はStringにせずReaderから読みながら走査する（指紋にも含める）
+     */
+    static final String[] EXTRA_TEXT_MIME_TYPES = {"text/html", "text/uri-list"};
+
+    /**
+     * クリップボードの更新
+     *
+     * @param hashes     値から検出したハッシュ（重複なし、出現順。空の場合もある）
+     * @param isRepeated 最近の値に戻ったか（ハッシュは前回の検出結果）
+     */
+    public record Update(Set<HashKey> hashes, boolean isRepeated) {
+    }
+
+    private ScheduledExecutorService executor;
+    // 停止直後に再開した場合に、前のスレッドの実行中の監視と重ならないようにする
+    private final Object tickLock = new Object();
+    private volatile ClipboardSource source;
+    private final char[] fingerprintBuffer = new char[8192];
+    private final byte[] fingerprintByteBuffer = new byte[8192];
+    private ClipboardFingerprint fingerprint;
+    private final LruCache<ClipboardFingerprint, Set<HashKey>> recentContents =
+            new LruCache<>(DEFAULT_RECENT_CONTENT_CACHE_SIZE);
+    private volatile long delay;
+    private volatile long maxDelay;
+    private volatile long currentDelay;
+    private volatile long tickCount = 0;
+    private volatile long changeCount = 0;
+    private long burstDeadline;
+    private volatile boolean isRunning = false;
+    private Consumer<Update> callback;
     private boolean isFailedToGetBefore = false;
 
     /**
      * 監視間隔を指定してインスタンスを作成する
+     * 監視間隔の上限は監視間隔と同じになる（間隔を延ばさない）
      *
      * @param delay 監視間隔（ミリ秒）
      */
     public ClipboardWatcher(long delay) {
+        this(delay, delay);
+    }
+
+    /**
+     * 監視間隔とその上限を指定してインスタンスを作成する
+     *
+     * @param delay    監視間隔（ミリ秒）
+     * @param maxDelay 変更がない間に延ばす監視間隔の上限（ミリ秒）
+     */
+    public ClipboardWatcher(long delay, long maxDelay) {
+        this(new AwtClipboardSource(), delay, maxDelay);
+    }
+
+    /**
+     * 取得元と監視間隔とその上限を指定してインスタンスを作成する
+     *
+     * @param source   値の取得元
+     * @param delay    監視間隔（ミリ秒）
+     * @param maxDelay 変更がない間に延ばす監視間隔の上限（ミリ秒）
+     */
+    public ClipboardWatcher(ClipboardSource source, long delay, long maxDelay) {
+        this.source = source;
         this.delay = delay;
+        this.maxDelay = maxDelay;
+        this.currentDelay = delay;
     }
 
     /**
      * クリップボードのデータが更新された時に呼び出される関数を設定する
      * データを文字列に変換できない、またはデータに変更がない場合は呼び出されない
+     * 監視のスレッドで呼び出される
      *
      * @param callback 関数
      */
-    public void setCallback(Consumer<String> callback) {
+    public void setCallback(Consumer<Update> callback) {
         this.callback = callback;
     }
 
@@ -46,58 +131,211 @@ public class ClipboardWatcher {
      * クリップボードの監視を開始する
      * 既に開始している場合は何も起こらない
      */
-    public void start() {
+    public synchronized void start() {
         if (isRunning) return;
-        timerTask = new TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    updateClipboard();
-                    if (isFailedToGetBefore) {
-                        isFailedToGetBefore = false;
-                        Main.getInstance().getController().info("");
-                    }
-                } catch (IllegalStateException e) {
-                    isFailedToGetBefore = true;
-                    Main.getInstance().getController().error("クリップボードからデータを取得できません");
-                }
-            }
-        };
-        timer = new Timer(true);
-        timer.schedule(timerTask, 0, delay);
+        final ScheduledThreadPoolExecutor newExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "ClipboardWatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 停止したら予約済みの監視は実行しない
+        newExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = newExecutor;
+        // 最初の監視は即時に行い、次の監視は設定された間隔で行う
+        currentDelay = 0;
+        burstDeadline = System.nanoTime();
         isRunning = true;
+        newExecutor.execute(() -> tick(newExecutor));
     }
 
     /**
      * クリップボードの監視を停止する
+     * 実行中の通知は割り込まずに完了させる（楽曲データの取得を待っている場合があるため）
      */
-    public void stop() {
+    public synchronized void stop() {
         if (!isRunning) return;
-        timer.cancel();
-        timer = null;
-        timerTask = null;
+        executor.shutdown();
+        executor = null;
         isRunning = false;
     }
 
     /**
-     * クリップボードのデータを取得し、変更があったら更新する
+     * クリップボードを1回確認し、次の確認を予約する
      *
+     * @param tickExecutor この監視を実行しているExecutor（停止後に再開された場合に区別する）
+     */
+    private void tick(ScheduledExecutorService tickExecutor) {
+        boolean isChanged = false;
+        try {
+            final Update update;
+            synchronized (tickLock) {
+                update = updateClipboard();
+            }
+            isChanged = update != null;
+            if (isChanged && callback != null) callback.accept(update);
+            if (isFailedToGetBefore) {
+                isFailedToGetBefore = false;
+                showMessage(false, "");
+            }
+        } catch (IllegalStateException e) {
+            isFailedToGetBefore = true;
+            showMessage(true, "クリップボードからデータを取得できません");
+        } catch (RuntimeException e) {
+            // 通知先の失敗などで監視が止まらないように、報告して次の監視を続ける
+            e.printStackTrace();
+            showMessage(true, "クリップボードのデータを処理できません");
+        } finally {
+            tickCount++;
+            if (isChanged) changeCount++;
+            currentDelay = computeNextDelay(isChanged);
+            try {
+                tickExecutor.schedule(() -> tick(tickExecutor), currentDelay,
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 停止された
+            }
+        }
+    }
+
+    /**
+     * メインウィンドウにメッセージを表示する（アプリケーションの外で使う場合は何もしない）
+     */
+    private static void showMessage(boolean isError, String message) {
+        final Main main = Main.getInstance();
+        if (main == null || main.getController() == null) return;
+        if (isError) {
+            main.getController().error(message);
+        } else {
+            main.getController().info(message);
+        }
+    }
+
+    /**
+     * 次の監視までの間隔を計算する
+     *
+     * @param isChanged 今回の監視で変更を検出したか
+     * @return 次の監視までの間隔（ミリ秒）
+     */
+    private long computeNextDelay(boolean isChanged) {
+        final long now = System.nanoTime();
+        if (isChanged) {
+            burstDeadline = now + TimeUnit.MILLISECONDS.toNanos(BURST_DURATION);
+            return BURST_DELAY;
+        }
+        if (now - burstDeadline < 0) {
+            return BURST_DELAY;
+        }
+        if (currentDelay < delay) {
+            return delay;
+        }
+        return Math.min(currentDelay * 2, Math.max(delay, maxDelay));
+    }
+
+    /**
+     * クリップボードのデータの指紋を計算し、変更があったらデータを取得して更新する
+     * 最近の値に戻った場合はデータを取得せず、前回検出したハッシュを返す
+     *
+     * @return 通知する更新（変更がなければnull）
      * @throws IllegalStateException クリップボードが利用できない
      */
-    private void updateClipboard() throws IllegalStateException {
-        final String data;
+    private Update updateClipboard() throws IllegalStateException {
+        final Transferable contents = source.getContents();
+        if (contents == null) return null;
+        final Update update;
         try {
-            data = Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor).toString();
+            // 形式の組や長さが変わっていれば、内容を最後まで読まずに変更と判断する
+            if (fingerprint != null
+                    && fingerprint.matches(contents, fingerprintBuffer, fingerprintByteBuffer)) {
+                return null;
+            }
+            final ClipboardFingerprint newFingerprint =
+                    ClipboardFingerprint.of(contents, fingerprintBuffer, fingerprintByteBuffer);
+            if (newFingerprint.equals(fingerprint)) return null;
+            final Set<HashKey> recentHashes = getRecentHashes(newFingerprint);
+            if (recentHashes != null) {
+                update = new Update(recentHashes, true);
+            } else {
+                final String data = contents.getTransferData(DataFlavor.stringFlavor).toString();
+                final LinkedHashSet<HashKey> hashes = ParallelHashExtractor.extractDistinct(data);
+                scanExtraFlavors(contents, hashes);
+                putRecentHashes(newFingerprint, Collections.unmodifiableSet(hashes));
+                update = new Update(Collections.unmodifiableSet(hashes), false);
+            }
+            fingerprint = newFingerprint;
         } catch (UnsupportedFlavorException | IOException e) {
             // 画像データなど文字列に変換できないタイプのデータは無視
-            return;
+            return null;
         }
-        if (!data.equals(value)) {
-            value = data;
-            if (callback != null) callback.accept(data);
+        return update;
+    }
+
+    /**
+     * HTMLとURIリストの形式の内容を走査し、検出したハッシュを追加する
+     * 読めない形式は無視する
+     *
+     * @param contents クリップボードの内容
+     * @param hashes   追加先（既に含まれるハッシュは追加されない）
+     */
+    private static void scanExtraFlavors(Transferable contents, Set<HashKey> hashes) {
+        final DataFlavor[] flavors = contents.getTransferDataFlavors();
+        for (final String mimeType : EXTRA_TEXT_MIME_TYPES) {
+            final DataFlavor flavor = selectStreamingFlavor(flavors, mimeType);
+            if (flavor == null) continue;
+            try (final Reader reader = flavor.getReaderForText(contents)) {
+                HashStreamScanner.scan(reader, hashes::add);
+            } catch (UnsupportedFlavorException | IOException e) {
+                // この形式では取得できなかった
+            }
+        }
+    }
+
+    /**
+     * 指定したMIMEタイプの形式から、Stringを経由せずに読める形式を優先して選ぶ
+     *
+     * @return 形式（該当する形式がなければnull）
+     */
+    static DataFlavor selectStreamingFlavor(DataFlavor[] flavors, String mimeType) {
+        final DataFlavor[] candidates = Arrays.stream(flavors)
+                .filter(flavor -> flavor.isMimeTypeEqual(mimeType))
+                .toArray(DataFlavor[]::new);
+        for (final DataFlavor flavor : candidates) {
+            if (flavor.isRepresentationClassReader()) return flavor;
+        }
+        for (final DataFlavor flavor : candidates) {
+            // 文字コードが分からないバイト列は正しく読めないので避ける
+            if (flavor.isRepresentationClassInputStream() && flavor.getParameter("charset") != null) {
+                return flavor;
+            }
+        }
+        return DataFlavor.selectBestTextFlavor(candidates);
+    }
+
+    private Set<HashKey> getRecentHashes(ClipboardFingerprint fingerprint) {
+        synchronized (recentContents) {
+            return recentContents.get(fingerprint);
         }
     }
 
+    private void putRecentHashes(ClipboardFingerprint fingerprint, Set<HashKey> hashes) {
+        synchronized (recentContents) {
+            recentContents.put(fingerprint, hashes);
+        }
+    }
+
+    public ClipboardSource getSource() {
+        return source;
+    }
+
+    /**
+     * 値の取得元を設定する
+     * 監視中の場合は次の監視から反映される
+     *
+     * @param source 値の取得元
+     */
+    public void setSource(ClipboardSource source) {
+        this.source = source;
+    }
+
     /**
      * クリップボードを監視中か
      *
@@ -111,14 +349,72 @@ public class ClipboardWatcher {
         return delay;
     }
 
+    /**
+     * 監視間隔を設定する
+     * 監視中の場合は次の監視から反映される
+     *
+     * @param delay 監視間隔（ミリ秒）
+     */
     public void setDelay(long delay) {
         if (delay < DELAY_LOWER_LIMIT) {
             throw new IllegalArgumentException("delay must be " + DELAY_LOWER_LIMIT + " or more");
         }
         this.delay = delay;
-        if (isRunning) {
-            stop();
-            start();
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * 変更がない間に延ばす監視間隔の上限を設定する
+     * 監視間隔より小さい場合は監視間隔が上限になる
+     *
+     * @param maxDelay 監視間隔の上限（ミリ秒）
+     */
+    public void setMaxDelay(long maxDelay) {
+        if (maxDelay < DELAY_LOWER_LIMIT) {
+            throw new IllegalArgumentException("maxDelay must be " + DELAY_LOWER_LIMIT + " or more");
+        }
+        this.maxDelay = maxDelay;
+    }
+
+    public int getRecentContentCacheSize() {
+        synchronized (recentContents) {
+            return recentContents.getMaxSize();
+        }
+    }
+
+    /**
+     * 最近の値を保持する件数を設定する
+     * 0なら保持せず、毎回走査する
+     *
+     * @param size 件数
+     */
+    public void setRecentContentCacheSize(int size) {
+        synchronized (recentContents) {
+            recentContents.setMaxSize(size);
         }
     }
+
+    /**
+     * 現在の監視間隔（ミリ秒）
+     */
+    public long getCurrentDelay() {
+        return currentDelay;
+    }
+
+    /**
+     * 監視を開始してからクリップボードを確認した回数
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * 監視を開始してから変更を検出した回数
+     */
+    public long getChangeCount() {
+        return changeCount;
+    }
 }
@@ -0,0 +1,161 @@
+package com.getaji.bmshashwatcher;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.getaji.bmshashwatcher.lib.HashStreamScanner;
+import com.getaji.bmshashwatcher.model.HashKey;
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
+import javafx.concurrent.Task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * ファイルからハッシュを読み込むタスク
+ * ファイルは全体を読み込まずにストリームとして走査し、一定数のハッシュが集まるたびに通知する
+ * JSONファイルはmd5とsha256のフィールドの値のみを、それ以外は全文からハッシュを検出する
+ * 通知先の処理が終わるまで次の読み込みは行わないので、読み込みのバッファはファイルの大きさによらない
+ * ただし重複を除くために読み込んだハッシュを全て保持するので、その分はハッシュの種類の数に比例して増える
+ * （テーブルは重複を除かないので、ここで除く）
+ */
+public class HashFileImporter extends Task<Long> {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<Path> files;
+    private final int batchSize;
+    private final Consumer<List<HashKey>> batchConsumer;
+
+    // 重複を除くために読み込んだ全てのハッシュ（1件あたり数十バイト）
+    private final Set<HashKey> importedHashes = new HashSet<>();
+    private final List<HashKey> batch = new ArrayList<>();
+    private long totalBytes;
+    private long readBytes;
+
+    /**
+     * @param files         読み込むファイル
+     * @param batchSize     一度に通知するハッシュの最大数
+     * @param batchConsumer 重複を除いたハッシュの通知先（このタスクのスレッドで呼び出される）
+     */
+    public HashFileImporter(List<Path> files, int batchSize, Consumer<List<HashKey>> batchConsumer) {
+        this.files = List.copyOf(files);
+        this.batchSize = batchSize;
+        this.batchConsumer = batchConsumer;
+    }
+
+    /**
+     * ファイルを順に読み込む
+     *
+     * @return 読み込んだハッシュの件数（重複を除く）
+     * @throws IOException ファイルの読み込みに失敗
+     */
+    @Override
+    protected Long call() throws IOException {
+        totalBytes = 0;
+        for (final Path file : files) {
+            totalBytes += Files.size(file);
+        }
+
+        for (final Path file : files) {
+            if (isCancelled()) break;
+            updateMessage(file.getFileName().toString());
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final ReadableByteChannel progressChannel = new ProgressChannel(channel);
+                if (isJsonFile(file)) {
+                    importJson(Channels.newInputStream(progressChannel));
+                } else {
+                    HashStreamScanner.scan(progressChannel, StandardCharsets.UTF_8, this::accept);
+                }
+            }
+        }
+        flush();
+        return (long) importedHashes.size();
+    }
+
+    private static boolean isJsonFile(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+    }
+
+    /**
+     * JSONをストリームとして走査し、md5とsha256のフィールドの値を読み込む
+     * ツリーを構築しないので、大きなファイルでも全体をメモリに読み込まない
+     */
+    private void importJson(InputStream inputStream) throws IOException {
+        try (final JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.FIELD_NAME) continue;
+                final String name = parser.getCurrentName();
+                final boolean isMD5Field = "md5".equalsIgnoreCase(name);
+                if (!isMD5Field && !"sha256".equalsIgnoreCase(name)) continue;
+                if (parser.nextToken() != JsonToken.VALUE_STRING) continue;
+                final String value = parser.getText();
+                final HashKey hash = isMD5Field ? Md5Key.parseOrNull(value) :
+                        Sha256Key.parseOrNull(value);
+                if (hash != null) {
+                    accept(hash);
+                }
+            }
+        }
+    }
+
+    private void accept(HashKey hash) {
+        if (!importedHashes.add(hash)) return;
+        batch.add(hash);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (batch.isEmpty()) return;
+        batchConsumer.accept(List.copyOf(batch));
+        batch.clear();
+    }
+
+    /**
+     * 読み込んだバイト数から進捗を更新するChannel
+     * タスクがキャンセルされた場合は終端に達したものとして扱う
+     */
+    private class ProgressChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+
+        ProgressChannel(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (isCancelled()) return -1;
+            final int read = channel.read(dst);
+            if (read > 0) {
+                readBytes += read;
+                updateProgress(readBytes, totalBytes);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
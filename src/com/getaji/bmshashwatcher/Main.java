@@ -4,19 +4,21 @@ import com.getaji.bmshashwatcher.controller.MainWindowController;
 import com.getaji.bmshashwatcher.controller.PreferenceDialogController;
 import com.getaji.bmshashwatcher.db.BeatorajaSongDataAccessor;
 import com.getaji.bmshashwatcher.db.LR2SongDataAccessor;
+import com.getaji.bmshashwatcher.db.ResolvedSongCache;
 import com.getaji.bmshashwatcher.db.SongDataAccessor;
+import com.getaji.bmshashwatcher.db.SongDataPoller;
 import com.getaji.bmshashwatcher.db.SongDataPollingController;
-import com.getaji.bmshashwatcher.lib.HashChecker;
+import com.getaji.bmshashwatcher.db.SongDatabaseWatcher;
 import com.getaji.bmshashwatcher.model.*;
 import javafx.application.Application;
 import javafx.application.Platform;
-import javafx.collections.ObservableList;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Dialog;
+import javafx.scene.control.TextArea;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
 import javafx.stage.Window;
@@ -25,11 +27,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Optional;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class Main extends Application {
@@ -43,6 +45,8 @@ public class Main extends Application {
     private final SongDataAccessor beatorajaSongDataAccessor;
     private final SongDataAccessor lr2SongDataAccessor;
     private final SongDataPollingController songDataPollingController;
+    private final SongDatabaseWatcher beatorajaDatabaseWatcher;
+    private final SongDatabaseWatcher lr2DatabaseWatcher;
     private final AppState appState;
 
     private MainWindowController controller;
@@ -69,13 +73,26 @@ public class Main extends Application {
             config.setClipboardDelay(1000);
             trySaveConfig();
         }
+        if (config.getClipboardMaxDelay() < 100) {
+            config.setClipboardMaxDelay(4000);
+            trySaveConfig();
+        }
 
-        clipboardWatcher = new ClipboardWatcher(config.getClipboardDelay());
+        clipboardWatcher = new ClipboardWatcher(config.getClipboardDelay(),
+                config.getClipboardMaxDelay());
         clipboardWatcher.setCallback(this::onUpdateClipboard);
+        if (config.getClipboardRecentContentCacheSize() >= 0) {
+            clipboardWatcher.setRecentContentCacheSize(config.getClipboardRecentContentCacheSize());
+        }
 
         beatorajaSongDataAccessor = new BeatorajaSongDataAccessor();
         lr2SongDataAccessor = new LR2SongDataAccessor();
 
+        beatorajaDatabaseWatcher = new SongDatabaseWatcher(beatorajaSongDataAccessor, config);
+        beatorajaDatabaseWatcher.setReloadConsumer(this::onReloadSongDatabase);
+        lr2DatabaseWatcher = new SongDatabaseWatcher(lr2SongDataAccessor, config);
+        lr2DatabaseWatcher.setReloadConsumer(this::onReloadSongDatabase);
+
         songDataPollingController = new SongDataPollingController();
         songDataPollingController
                 .addAccessor(beatorajaSongDataAccessor)
@@ -84,11 +101,49 @@ public class Main extends Application {
                 .addAccessor(lr2SongDataAccessor)
                 .setEnable(!config.getLr2Path().isEmpty() && config.isUseLR2DB());
 
-        songDataPollingController.setMultipleConsumer(multipleResult -> {
-            synchronized (songDataPollingController) {
-                onCompleteSongDataPolling(multipleResult);
+        // 結果はpollerのスレッドから通知されるので、リストの更新はFXスレッドで順に行う
+        songDataPollingController.setMultipleConsumer(multipleResult ->
+                Platform.runLater(() -> onCompleteSongDataPolling(multipleResult)));
+        songDataPollingController.setEnableParallel(config.isParallelSongDataPolling());
+        for (final SongDataPoller poller : songDataPollingController.getPollers()) {
+            poller.getNegativeCache().setTtlMillis(
+                    TimeUnit.SECONDS.toMillis(Math.max(0, config.getSongDataNegativeCacheTtl())));
+        }
+        songDataPollingController.setSongCache(tryOpenSongCache());
+    }
+
+    /**
+     * 取得済みの楽曲データのキャッシュを開く
+     * 開けなくてもデータベースから取得できるので、失敗はログに出力するだけにする
+     *
+     * @return キャッシュ（開けなければnull）
+     */
+    private ResolvedSongCache tryOpenSongCache() {
+        try {
+            return ResolvedSongCache.open(Path.of("./" + ResolvedSongCache.DEFAULT_FILE_NAME));
+        } catch (IOException | IllegalStateException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public void stop() {
+        songDataPollingController.getSongCache().ifPresent(songCache -> {
+            try {
+                songCache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         });
+        // 複製モードの一時ファイルは接続を閉じた時に削除される
+        for (final SongDataAccessor accessor : songDataPollingController.getAccessors()) {
+            try {
+                accessor.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     public static Main getInstance() {
@@ -146,9 +201,35 @@ public class Main extends Application {
             clipboardWatcher.start();
         }
 
+        restartSongDatabaseWatcher(beatorajaDatabaseWatcher);
+        restartSongDatabaseWatcher(lr2DatabaseWatcher);
+
         controller.info("起動完了");
     }
 
+    /**
+     * 楽曲データベースの監視を設定のパスで開始し直す
+     * 監視できなくても検索には影響しないので、失敗はログに出力するだけにする
+     *
+     * @param watcher 監視
+     */
+    private void restartSongDatabaseWatcher(SongDatabaseWatcher watcher) {
+        try {
+            watcher.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 楽曲データベースの更新を反映した時の処理
+     * SongDatabaseWatcherに登録される
+     */
+    private void onReloadSongDatabase(SongDataAccessor accessor) {
+        final String name = accessor == beatorajaSongDataAccessor ? "beatoraja" : "LR2";
+        Platform.runLater(() -> controller.info(name + "の楽曲データベースの更新を反映しました"));
+    }
+
     /**
      * 設定の保存を試みる。
      * 失敗した場合は確認ダイアログを表示し、OKが選択された場合は再試行する。
@@ -265,6 +346,10 @@ public class Main extends Application {
                 }
                 poller.setEnable(isEnable);
             });
+            if (isPathChanged) {
+                restartSongDatabaseWatcher(accessor == beatorajaSongDataAccessor ?
+                        beatorajaDatabaseWatcher : lr2DatabaseWatcher);
+            }
 
             trySaveConfig();
 
@@ -293,22 +378,22 @@ public class Main extends Application {
     }
 
     /**
-     * どちらかの空文字ではないハッシュがBMSHashDataのハッシュと一致すればtrueを返す
+     * どちらかのnullではないハッシュがBMSHashDataのハッシュと一致すればtrueを返す
      */
     private boolean isResponseMatchesEitherHash(BMSHashData hashData,
                                                 SongDataAccessor.Result result) {
         final SongData songData = result.songData();
         if (songData == null) {
-            return (result.hashType() == BMSHashData.HashType.MD5 && result.hash().equals(hashData.getMD5Hash()))
-                    || (result.hashType() == BMSHashData.HashType.SHA256 && result.hash().equals(hashData.getSHA256Hash()));
+            return result.hash().equals(hashData.getMD5Hash())
+                    || result.hash().equals(hashData.getSHA256Hash());
         }
-        return (!songData.md5().isEmpty() && songData.md5().equals(hashData.getMD5Hash()))
-                || (!songData.sha256().isEmpty() && songData.sha256().equals(hashData.getSHA256Hash()));
+        return (songData.md5() != null && songData.md5().equals(hashData.getMD5Hash()))
+                || (songData.sha256() != null && songData.sha256().equals(hashData.getSHA256Hash()));
     }
 
     /**
      * 楽曲データの取得が完了した時に呼び出されるメソッド
-     * SongDataPollingControllerに登録される
+     * SongDataPollingControllerに登録され、FXスレッドで実行される
      */
     private void onCompleteSongDataPolling(SongDataPollingController.MultipleResult multipleResult) {
         final List<BMSHashData> hashDataList =
@@ -346,17 +431,19 @@ public class Main extends Application {
                 // 既存の要素に一致
                 if (isResponseMatchesEitherHash(hashData, result)) {
                     if (resultSong == null) {
-                        if (hashData.getTitle().equals("取得中...")) {
+                        if (hashData.isPending()) {
+                            hashData.setPending(false);
                             hashData.setTitle("不明のBMS");
                             hashDataList.remove(hi);
                             updatedHashDataList.add(hashData);
                         }
                     } else {
+                        hashData.setPending(false);
                         hashData.setTitle(resultSong.getTitleFull());
-                        if (!resultSong.md5().isEmpty()) {
+                        if (resultSong.md5() != null) {
                             hashData.setMD5Hash(resultSong.md5());
                         }
-                        if (!resultSong.sha256().isEmpty()) {
+                        if (resultSong.sha256() != null) {
                             hashData.setSHA256Hash(resultSong.sha256());
                         }
                         hashDataList.remove(hi);
@@ -369,11 +456,7 @@ public class Main extends Application {
 
             if (!isFound) {
                 if (resultSong == null) {
-                    updatedHashDataList.add(new BMSHashData(
-                            "不明のBMS",
-                            result.hashType() == BMSHashData.HashType.MD5 ? result.hash() : "",
-                            result.hashType() == BMSHashData.HashType.SHA256 ? result.hash() : ""
-                    ));
+                    updatedHashDataList.add(new BMSHashData("不明のBMS", result.hash()));
                 } else {
                     updatedHashDataList.add(new BMSHashData(
                             resultSong.getTitleFull(),
@@ -392,42 +475,113 @@ public class Main extends Application {
      * クリップボードのデータが更新されたら呼び出されるメソッド
      * ClipboardWatcherに登録される
      */
-    private synchronized void onUpdateClipboard(String value) {
+    private synchronized void onUpdateClipboard(ClipboardWatcher.Update update) {
         // このアプリがコピーしたデータなら無視
         if (appState.isCopyWithThisAppJustBefore()) {
             appState.setCopyWithThisAppJustBefore(false);
             return;
         }
 
-        final List<String> hashList = HashChecker.getHashPartAll(value);
-        final List<String> distinctHashList = new HashSet<>(hashList).stream().toList();
+        final Set<HashKey> distinctHashes = update.hashes();
 
-        if (distinctHashList.isEmpty()) return;
+        if (distinctHashes.isEmpty()) return;
+
+        if (update.isRepeated()) {
+            // リストはFXスレッドで並べ替え、残ったハッシュをこのスレッドで取得する
+            final CompletableFuture<List<HashKey>> unknownHashes = new CompletableFuture<>();
+            Platform.runLater(() -> {
+                try {
+                    unknownHashes.complete(moveKnownHashDataToTop(distinctHashes));
+                } catch (RuntimeException e) {
+                    unknownHashes.completeExceptionally(e);
+                }
+            });
+            requestSongData(unknownHashes.join());
+        } else {
+            requestSongData(distinctHashes);
+        }
+    }
+
+    /**
+     * 取得済みのハッシュのデータをリストの先頭に移動する
+     * 最近コピーした値に戻った場合に、同じハッシュを再び問い合わせないために使う
+     * FXスレッドで呼び出す
+     *
+     * @param hashes 重複のないハッシュ
+     * @return リストにない、または取得中のハッシュ
+     */
+    private List<HashKey> moveKnownHashDataToTop(Set<HashKey> hashes) {
+        final List<BMSHashData> hashDataList =
+                new ArrayList<>(controller.getHashTableView().getItems());
+        // 同じハッシュの行が複数あれば先頭に近い行を使う
+        final Map<HashKey, BMSHashData> hashDataByHash = new HashMap<>();
+        for (final BMSHashData hashData : hashDataList) {
+            if (hashData.isPending()) continue;
+            if (hashData.getMD5Hash() != null) {
+                hashDataByHash.putIfAbsent(hashData.getMD5Hash(), hashData);
+            }
+            if (hashData.getSHA256Hash() != null) {
+                hashDataByHash.putIfAbsent(hashData.getSHA256Hash(), hashData);
+            }
+        }
+        // MD5とSHA-256の両方が同じ行に一致する場合があるので、行の同一性で重複を除く
+        final Set<BMSHashData> knownHashDataSet =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<BMSHashData> knownHashDataList = new ArrayList<>();
+        final List<HashKey> unknownHashes = new ArrayList<>();
+        for (final HashKey hash : hashes) {
+            final BMSHashData knownHashData = hashDataByHash.get(hash);
+            if (knownHashData == null) {
+                unknownHashes.add(hash);
+            } else if (knownHashDataSet.add(knownHashData)) {
+                knownHashDataList.add(knownHashData);
+            }
+        }
+        if (!knownHashDataList.isEmpty()) {
+            hashDataList.removeIf(knownHashDataSet::contains);
+            hashDataList.addAll(0, knownHashDataList);
+            controller.getHashTableView().getItems().setAll(hashDataList);
+            if (unknownHashes.isEmpty()) {
+                controller.info("取得済みのハッシュを検出しました");
+            }
+        }
+        return unknownHashes;
+    }
 
-        final ObservableList<BMSHashData> hashDataList = controller.getHashTableView().getItems();
+    /**
+     * ハッシュをリストに追加し、楽曲データの取得を要求する
+     * 取得が有効なら全てのpollerの処理が終わるまで待機する
+     * クリップボードの監視とインポートのスレッドから同時に呼び出されてもよい
+     * 行の追加はまとめてFXスレッドで行い、結果の反映より先に実行される
+     *
+     * @param hashes 重複のないハッシュ
+     */
+    private void requestSongData(Collection<HashKey> hashes) {
+        if (hashes.isEmpty()) return;
 
         // TODO 既に存在する場合の処理
 
-        final List<SongDataAccessor.Request> requests = distinctHashList.stream()
-                .map(hash -> {
-                    final boolean isMD5Hash = hash.length() == 32;
-                    final BMSHashData hashData = new BMSHashData(
-                            "取得中...",
-                            isMD5Hash ? hash : "",
-                            isMD5Hash ? "" : hash
-                    );
-                    if (songDataPollingController.isDisableAll()) {
-                        hashData.setTitle("不明のBMS");
-                    }
-                    controller.getHashTableView().getItems().add(hashData);
-                    return new SongDataAccessor.Request(isMD5Hash ? BMSHashData.HashType.MD5 :
-                            BMSHashData.HashType.SHA256, hash);
-                })
-                .toList();
+        final boolean isDisableAll = songDataPollingController.isDisableAll();
+        final List<BMSHashData> hashDataList = new ArrayList<>(hashes.size());
+        final List<SongDataAccessor.Request> requests = new ArrayList<>(hashes.size());
+        for (final HashKey hash : hashes) {
+            final BMSHashData hashData =
+                    new BMSHashData(isDisableAll ? "不明のBMS" : "取得中...", hash);
+            hashData.setPending(!isDisableAll);
+            hashDataList.add(hashData);
+            requests.add(new SongDataAccessor.Request(hash));
+        }
+        Platform.runLater(() -> controller.getHashTableView().getItems().addAll(hashDataList));
 
-        if (!songDataPollingController.isDisableAll()) {
+        if (!isDisableAll) {
+            controller.info("ハッシュを検出しました。データを取得しています...");
+        } else {
+            controller.info("ハッシュを検出しました");
+        }
+
+        // データベースを使わない場合もキャッシュからは取得する
+        if (!isDisableAll || songDataPollingController.getSongCache().isPresent()) {
             try {
-                controller.info("ハッシュを検出しました。データを取得しています...");
                 songDataPollingController.pollAll(requests);
             } catch (ExecutionException e) {
                 // 例外を伴って完了
@@ -436,11 +590,36 @@ public class Main extends Application {
                 // 割り込まれた
                 throw new RuntimeException(e);
             }
-        } else {
-            controller.info("ハッシュを検出しました");
         }
     }
 
+    /**
+     * ファイルからハッシュを読み込み、一定数ごとに楽曲データを取得する
+     * 読み込みはバックグラウンドで行い、進捗はメインウィンドウに表示する
+     *
+     * @param files 読み込むファイル
+     */
+    public void importFiles(List<File> files) {
+        if (files.isEmpty()) return;
+        final HashFileImporter importer = new HashFileImporter(
+                files.stream().map(File::toPath).toList(),
+                HashFileImporter.DEFAULT_BATCH_SIZE,
+                this::requestSongData
+        );
+        importer.setOnSucceeded(event ->
+                controller.info("インポートが完了しました（" + importer.getValue() + "件）"));
+        importer.setOnFailed(event -> {
+            importer.getException().printStackTrace();
+            controller.error("ファイルを読み込めません。ファイルの有無やアクセス権限を確認してください");
+        });
+        controller.showImportProgress(importer);
+        controller.info("ファイルを読み込んでいます...");
+
+        final Thread thread = new Thread(importer, "HashFileImporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     public Config getConfig() {
         return config;
     }
@@ -470,6 +649,43 @@ public class Main extends Application {
         trySaveConfig();
     }
 
+    /**
+     * 動作状況の統計をダイアログで表示する
+     */
+    public void openDiagnostics() {
+        final TextArea textArea = new TextArea(String.join("\n", getDiagnostics()));
+        textArea.setEditable(false);
+        textArea.setWrapText(true);
+        final Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.initOwner(controller.getPrimaryStage());
+        alert.setTitle("診断情報");
+        alert.setHeaderText("現在の動作状況");
+        alert.getDialogPane().setContent(textArea);
+        alert.showAndWait();
+    }
+
+    /**
+     * 動作状況の統計を1項目1行で返す
+     *
+     * @return 統計の行
+     */
+    public List<String> getDiagnostics() {
+        final List<String> lines = new ArrayList<>();
+        lines.add(String.format("クリップボード: %s 確認=%d回 変更=%d回 現在の間隔=%dms",
+                clipboardWatcher.isRunning() ? "監視中" : "停止中",
+                clipboardWatcher.getTickCount(), clipboardWatcher.getChangeCount(),
+                clipboardWatcher.getCurrentDelay()));
+        lines.add("MD5とSHA-256の対応: " + songDataPollingController.getCrossReference().getStats());
+        for (final SongDataPoller poller : songDataPollingController.getPollers()) {
+            final SongDataAccessor accessor = poller.getSongDataAccessor();
+            final String name = accessor == beatorajaSongDataAccessor ? "beatoraja" : "LR2";
+            lines.add(name + " 見つからなかったハッシュ: " + poller.getNegativeCache().getStats());
+            lines.add(name + " ハッシュのフィルタ: " + accessor.getHashFilter()
+                    .map(filter -> filter.getStats().toString()).orElse("なし"));
+        }
+        return lines;
+    }
+
     /**
      * 設定をアプリケーションに適用する
      *
@@ -499,13 +715,26 @@ public class Main extends Application {
             }
         });
 
+        final boolean isBeatorajaPathChanged =
+                !config.getBeatorajaPath().equals(model.getBeatorajaPath());
+        final boolean isLr2PathChanged = !config.getLr2Path().equals(model.getLr2Path());
+
         config.setUseBeatorajaDB(model.isUseBeatorajaDB());
         config.setUseLR2DB(model.isUseLR2DB());
         config.setBeatorajaPath(model.getBeatorajaPath());
         config.setLr2Path(model.getLr2Path());
 
+        if (isBeatorajaPathChanged) {
+            restartSongDatabaseWatcher(beatorajaDatabaseWatcher);
+        }
+        if (isLr2PathChanged) {
+            restartSongDatabaseWatcher(lr2DatabaseWatcher);
+        }
+
         config.setClipboardDelay(model.getClipboardDelay());
         clipboardWatcher.setDelay(model.getClipboardDelay());
+        config.setClipboardMaxDelay(model.getClipboardMaxDelay());
+        clipboardWatcher.setMaxDelay(model.getClipboardMaxDelay());
 
         config.setWebServiceList(model.getWebServices());
 
@@ -545,6 +774,7 @@ public class Main extends Application {
         model.beatorajaPathProperty().set(config.getBeatorajaPath());
         model.lr2PathProperty().set(config.getLr2Path());
         model.clipboardDelayProperty().set(config.getClipboardDelay());
+        model.clipboardMaxDelayProperty().set(config.getClipboardMaxDelay());
         model.getWebServices().addAll(config.getWebServiceList());
 
         dialog.setOnCloseRequest(event -> {
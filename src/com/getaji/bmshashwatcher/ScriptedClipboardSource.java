@@ -0,0 +1,111 @@
+package com.getaji.bmshashwatcher;
+
+import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 予定された時刻に内容が切り替わるメモリ上のClipboardSource
+ * 画面のない環境で、クリップボードの検出から楽曲データの反映までを再現可能な形で計測するために使う
+ * 時刻は最初にstartまたはgetContentsが呼ばれた時点からの経過時間で指定する
+ */
+public class ScriptedClipboardSource implements ClipboardSource {
+    /**
+     * 予定された内容
+     *
+     * @param atMillis 内容が切り替わる時刻（開始からのミリ秒）
+     * @param contents 内容
+     */
+    public record Entry(long atMillis, Transferable contents) {
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long startNanos;
+    private boolean isStarted = false;
+
+    /**
+     * 文字列の内容を予定に追加する
+     * 時刻は直前に追加した内容以降でなければならない
+     *
+     * @param atMillis 内容が切り替わる時刻（開始からのミリ秒）
+     * @param text     内容
+     * @return このインスタンス
+     */
+    public ScriptedClipboardSource add(long atMillis, String text) {
+        return add(atMillis, new StringSelection(text));
+    }
+
+    /**
+     * 内容を予定に追加する
+     * 時刻は直前に追加した内容以降でなければならない
+     *
+     * @param atMillis 内容が切り替わる時刻（開始からのミリ秒）
+     * @param contents 内容
+     * @return このインスタンス
+     */
+    public synchronized ScriptedClipboardSource add(long atMillis, Transferable contents) {
+        if (!entries.isEmpty() && atMillis < entries.get(entries.size() - 1).atMillis()) {
+            throw new IllegalArgumentException("atMillis must not be earlier than the previous entry");
+        }
+        entries.add(new Entry(atMillis, contents));
+        return this;
+    }
+
+    /**
+     * 時刻の計測を開始する
+     * 既に開始している場合は最初からやり直す
+     */
+    public synchronized void start() {
+        startNanos = System.nanoTime();
+        isStarted = true;
+    }
+
+    @Override
+    public synchronized Transferable getContents() {
+        if (!isStarted) start();
+        final int index = getCurrentIndex();
+        return index < 0 ? null : entries.get(index).contents();
+    }
+
+    /**
+     * 現在の内容の番号
+     *
+     * @return 番号（最初の内容の時刻より前なら-1）
+     */
+    public synchronized int getCurrentIndex() {
+        if (!isStarted) return -1;
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        int index = -1;
+        while (index + 1 < entries.size() && entries.get(index + 1).atMillis() <= elapsedMillis) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * 指定した内容に切り替わる時刻（System.nanoTimeの値）
+     * 検出までの遅延の計測に使う
+     *
+     * @param index 内容の番号
+     * @return 時刻
+     */
+    public synchronized long getScheduledNanos(int index) {
+        if (!isStarted) {
+            throw new IllegalStateException("not started");
+        }
+        return startNanos + TimeUnit.MILLISECONDS.toNanos(entries.get(index).atMillis());
+    }
+
+    /**
+     * 全ての内容に切り替わったか
+     */
+    public synchronized boolean isFinished() {
+        return isStarted && getCurrentIndex() == entries.size() - 1;
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return List.copyOf(entries);
+    }
+}
@@ -5,16 +5,19 @@ import com.getaji.bmshashwatcher.model.*;
 import com.getaji.bmshashwatcher.view.TypedMenuItem;
 import javafx.application.Platform;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
-import javafx.scene.input.Clipboard;
-import javafx.scene.input.ClipboardContent;
-import javafx.scene.input.ContextMenuEvent;
+import javafx.scene.input.*;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
+import java.io.File;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Optional;
 
 public class MainWindowController {
@@ -28,20 +31,25 @@ public class MainWindowController {
     private TableColumn<BMSHashData, String> titleColumn;
 
     @FXML
-    private TableColumn<BMSHashData, String> md5HashColumn;
+    private TableColumn<BMSHashData, Md5Key> md5HashColumn;
 
     @FXML
-    private TableColumn<BMSHashData, String> sha256HashColumn;
+    private TableColumn<BMSHashData, Sha256Key> sha256HashColumn;
 
     @FXML
     private Label bottomMessageLabel;
 
+    @FXML
+    private ProgressBar importProgressBar;
+
     private AppState appState;
 
     private ContextMenu contextMenu;
 
     private Stage primaryStage;
 
+    private Task<?> progressTask;
+
     @FXML
     public void initialize() {
         menuItemToggleWatchClipboard.setSelected(
@@ -51,6 +59,7 @@ public class MainWindowController {
         titleColumn.setCellValueFactory(new PropertyValueFactory<>("title"));
         md5HashColumn.setCellValueFactory(new PropertyValueFactory<>("md5Hash"));
         sha256HashColumn.setCellValueFactory(new PropertyValueFactory<>("sha256Hash"));
+        importProgressBar.managedProperty().bind(importProgressBar.visibleProperty());
     }
 
     @FXML
@@ -67,6 +76,40 @@ public class MainWindowController {
         }
     }
 
+    @FXML
+    public void onActionImportFile() {
+        final FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("インポートするファイルを選択");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("テキスト・JSON", "*.txt", "*.json", "*.csv", "*.tsv",
+                        "*.html", "*.log"),
+                new FileChooser.ExtensionFilter("すべてのファイル", "*.*")
+        );
+        final List<File> files = fileChooser.showOpenMultipleDialog(primaryStage);
+        if (files != null) {
+            Main.getInstance().importFiles(files);
+        }
+    }
+
+    @FXML
+    public void onDragOverHashTable(DragEvent event) {
+        if (event.getDragboard().hasFiles()) {
+            event.acceptTransferModes(TransferMode.COPY);
+        }
+        event.consume();
+    }
+
+    @FXML
+    public void onDragDroppedHashTable(DragEvent event) {
+        final Dragboard dragboard = event.getDragboard();
+        final boolean hasFiles = dragboard.hasFiles();
+        if (hasFiles) {
+            Main.getInstance().importFiles(dragboard.getFiles());
+        }
+        event.setDropCompleted(hasFiles);
+        event.consume();
+    }
+
     @FXML
     public void onActionOpenPreference() {
         Main.getInstance().openPreference();
@@ -77,6 +120,11 @@ public class MainWindowController {
         Main.getInstance().setEnableClipboardWatcher(menuItemToggleWatchClipboard.isSelected());
     }
 
+    @FXML
+    public void onActionOpenDiagnostics() {
+        Main.getInstance().openDiagnostics();
+    }
+
     @FXML
     public void onActionClearList() {
         hashTableView.getItems().clear();
@@ -103,18 +151,18 @@ public class MainWindowController {
             }
             if (webService != null) {
                 switch (webService.getSupportedHashType()) {
-                    case MD5 -> item.setDisable(hashData.getMD5Hash().isEmpty());
-                    case SHA256 -> item.setDisable(hashData.getSHA256Hash().isEmpty());
+                    case MD5 -> item.setDisable(hashData.getMD5Hash() == null);
+                    case SHA256 -> item.setDisable(hashData.getSHA256Hash() == null);
                     case MD5_AND_SHA256 ->
-                            item.setDisable(hashData.getMD5Hash().isEmpty() && hashData.getSHA256Hash().isEmpty());
+                            item.setDisable(hashData.getMD5Hash() == null && hashData.getSHA256Hash() == null);
                     case NONE -> item.setDisable(true);
                 }
             } else {
                 switch (Optional.ofNullable(item.getId()).orElse("")) {
                     case "contextMenu-itemCopyMD5Hash" ->
-                            item.setDisable(hashData.getMD5Hash().equals(""));
+                            item.setDisable(hashData.getMD5Hash() == null);
                     case "contextMenu-itemCopySHA256Hash" ->
-                            item.setDisable(hashData.getSHA256Hash().equals(""));
+                            item.setDisable(hashData.getSHA256Hash() == null);
                     default -> item.setDisable(false);
                 }
             }
@@ -167,28 +215,28 @@ public class MainWindowController {
         final MenuItem itemCopyMD5 = new MenuItem("MD5ハッシュをコピー");
         itemCopyMD5.setId("contextMenu-itemCopyMD5Hash");
         itemCopyMD5.setOnAction(ev ->
-                Optional.ofNullable(hashTableView.getSelectionModel().getSelectedItem()).ifPresent(
-                        hashData -> {
+                Optional.ofNullable(hashTableView.getSelectionModel().getSelectedItem())
+                        .map(BMSHashData::getMD5Hash)
+                        .ifPresent(hash -> {
                             final ClipboardContent content = new ClipboardContent();
-                            content.putString(hashData.getMD5Hash());
+                            content.putString(hash.toHex());
                             appState.setCopyWithThisAppJustBefore(true);
                             Clipboard.getSystemClipboard().setContent(content);
-                        }
-                )
+                        })
         );
         menuItems.add(itemCopyMD5);
 
         final MenuItem itemCopySHA256 = new MenuItem("SHA256ハッシュをコピー");
         itemCopySHA256.setId("contextMenu-itemCopySHA256Hash");
         itemCopySHA256.setOnAction(ev ->
-                Optional.ofNullable(hashTableView.getSelectionModel().getSelectedItem()).ifPresent(
-                        hashData -> {
+                Optional.ofNullable(hashTableView.getSelectionModel().getSelectedItem())
+                        .map(BMSHashData::getSHA256Hash)
+                        .ifPresent(hash -> {
                             final ClipboardContent content = new ClipboardContent();
-                            content.putString(hashData.getSHA256Hash());
+                            content.putString(hash.toHex());
                             appState.setCopyWithThisAppJustBefore(true);
                             Clipboard.getSystemClipboard().setContent(content);
-                        }
-                )
+                        })
         );
         menuItems.add(itemCopySHA256);
 
@@ -238,6 +286,27 @@ public class MainWindowController {
         this.primaryStage = primaryStage;
     }
 
+    /**
+     * タスクの進捗をメッセージ欄の横に表示し、タスクが終了したら非表示にする
+     *
+     * @param task 進捗を表示するタスク
+     */
+    public void showImportProgress(Task<?> task) {
+        progressTask = task;
+        importProgressBar.progressProperty().bind(task.progressProperty());
+        importProgressBar.setVisible(true);
+        task.stateProperty().addListener((observable, oldState, newState) -> {
+            // 後から開始したタスクの表示は消さない
+            if (progressTask != task) return;
+            if (newState == Worker.State.SUCCEEDED || newState == Worker.State.FAILED
+                    || newState == Worker.State.CANCELLED) {
+                progressTask = null;
+                importProgressBar.progressProperty().unbind();
+                importProgressBar.setVisible(false);
+            }
+        });
+    }
+
     public void setEnableWatchClipboard(boolean isEnable) {
         menuItemToggleWatchClipboard.setSelected(isEnable);
     }
@@ -45,6 +45,12 @@ public class PreferenceDialogController {
     @FXML
     private Label labelErrorClipboardDelay;
 
+    @FXML
+    private Spinner<Integer> spinnerClipboardMaxDelay;
+
+    @FXML
+    private Label labelErrorClipboardMaxDelay;
+
     @FXML
     private TableView<WebService> tableWebService;
 
@@ -65,6 +71,7 @@ public class PreferenceDialogController {
     public void initialize() {
         // 楽曲DBタブ
         spinnerClipboardDelay.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(100, Integer.MAX_VALUE));
+        spinnerClipboardMaxDelay.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(100, Integer.MAX_VALUE));
 
         // Webサービスタブ
         tableWebService.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
@@ -277,6 +284,18 @@ public class PreferenceDialogController {
             }
         });
 
+        model.clipboardMaxDelayProperty().asObject().bindBidirectional(spinnerClipboardMaxDelay.getValueFactory().valueProperty());
+
+        spinnerClipboardMaxDelay.valueProperty().addListener((observable, oldValue, newValue) -> {
+            if (newValue == null) {
+                switchErrorLabel(labelErrorClipboardMaxDelay, "正しい値を指定してください");
+            } else if (newValue < ClipboardWatcher.DELAY_LOWER_LIMIT) {
+                switchErrorLabel(labelErrorClipboardMaxDelay, "100ミリ秒（0.1秒）以上に設定してください");
+            } else {
+                switchErrorLabel(labelErrorClipboardMaxDelay, "");
+            }
+        });
+
         tableWebService.itemsProperty().bindBidirectional(model.webServicesProperty());
     }
 
@@ -298,5 +317,6 @@ public class PreferenceDialogController {
 
     public void onPreApply(PreferenceDialogModel model) {
         model.clipboardDelayProperty().set(spinnerClipboardDelay.getValue());
+        model.clipboardMaxDelayProperty().set(spinnerClipboardMaxDelay.getValue());
     }
 }
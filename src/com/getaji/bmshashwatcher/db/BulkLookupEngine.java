@@ -0,0 +1,89 @@
+package com.getaji.bmshashwatcher.db;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 大量のリクエストを分割して1つのアクセサで順に検索するクラス
+ * 1回の検索の件数はチャンクの大きさとアクセサのgetMaxRequestsPerQueryの小さい方になるので、
+ * SQLiteのプレースホルダの数の上限を超えず、IN句の大きさもStatementCacheで使い回せる範囲に収まる
+ * リクエスト数がアクセサのgetTempTableThreshold以上なら、IN句の代わりに一時テーブルとの結合で検索する
+ * 結果はチャンクごとに通知するので、全件の結果を保持することはない
+ */
+public class BulkLookupEngine {
+    /**
+     * チャンクの大きさの既定値
+     */
+    public static final int DEFAULT_CHUNK_SIZE = InListBucket.MAX_BUCKET_SIZE;
+
+    /**
+     * 一時テーブルで検索する場合のチャンクの大きさ
+     */
+    public static final int TEMP_TABLE_CHUNK_SIZE = 1 << 15;
+
+    private final SongDataAccessor accessor;
+    private final int chunkSize;
+
+    public BulkLookupEngine(SongDataAccessor accessor) {
+        this(accessor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param accessor  開いているアクセサ
+     * @param chunkSize 1回の検索の最大件数
+     */
+    public BulkLookupEngine(SongDataAccessor accessor, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be 1 or more");
+        }
+        this.accessor = accessor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 実際に使うチャンクの大きさ
+     */
+    public int getEffectiveChunkSize() {
+        return Math.max(1, Math.min(chunkSize, accessor.getMaxRequestsPerQuery()));
+    }
+
+    /**
+     * リクエストを先頭からチャンクに分割して検索し、チャンクごとに結果を通知する
+     * 結果はリクエストと同じ順で、全てのチャンクの結果を繋げるとリクエストと同じ件数になる
+     *
+     * @param requests リクエスト
+     * @param consumer チャンクごとの結果の通知先（呼び出し元のスレッドで呼び出される）
+     * @return 検索したチャンクの数
+     * @throws SQLException SQLに関する例外（それまでのチャンクの結果は通知済み）
+     */
+    public int lookup(List<SongDataAccessor.Request> requests, ChunkConsumer consumer)
+            throws SQLException {
+        final boolean isUseTempTable = isUseTempTable(requests.size());
+        final int effectiveChunkSize = isUseTempTable ? TEMP_TABLE_CHUNK_SIZE :
+                getEffectiveChunkSize();
+        int chunkCount = 0;
+        for (int start = 0; start < requests.size(); start += effectiveChunkSize) {
+            final int end = Math.min(start + effectiveChunkSize, requests.size());
+            final List<SongDataAccessor.Request> chunk = requests.subList(start, end);
+            consumer.accept(isUseTempTable ? accessor.findAllWithTempTable(chunk) :
+                    accessor.findAll(chunk));
+            chunkCount++;
+        }
+        return chunkCount;
+    }
+
+    /**
+     * 指定した数のリクエストを一時テーブルで検索するか
+     */
+    public boolean isUseTempTable(int requestCount) {
+        return requestCount >= accessor.getTempTableThreshold();
+    }
+
+    /**
+     * チャンクごとの結果の通知先
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(List<SongDataAccessor.Result> results);
+    }
+}
@@ -0,0 +1,170 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.lib.LruCache;
+import com.getaji.bmshashwatcher.model.HashKey;
+import com.getaji.bmshashwatcher.model.SongData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 取得した楽曲データからMD5とSHA-256の対応を覚えておくクラス
+ * どちらのハッシュで問い合わせても同じ楽曲データを返すので、SQLを使わずに答えられる
+ * 件数を超えると最も長く参照されていない対応から忘れる。スレッドセーフ
+ * 楽曲が削除・変更されても古い対応を返さないように、アクセサが開き直されたら全て忘れる
+ */
+public class HashCrossReference {
+    public static final int DEFAULT_MAX_PAIRS = 65536;
+
+    // MD5とSHA-256の両方をキーにして同じ楽曲データを保持する
+    private final LruCache<HashKey, SongData> songs;
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong learnedCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    // 覚えている対応を検索したセッションの世代（songsで同期する）
+    private long generation = 0;
+
+    public HashCrossReference() {
+        this(DEFAULT_MAX_PAIRS);
+    }
+
+    /**
+     * @param maxPairs 覚えておく対応の最大数
+     */
+    public HashCrossReference(int maxPairs) {
+        if (maxPairs < 0) {
+            throw new IllegalArgumentException("maxPairs must be 0 or more");
+        }
+        songs = new LruCache<>(maxPairs * 2);
+    }
+
+    /**
+     * 楽曲データのMD5とSHA-256の対応を覚える
+     * どちらかのハッシュがない楽曲データ（LR2など）は対応が分からないので無視する
+     *
+     * @param songData 楽曲データ
+     */
+    public void learn(SongData songData) {
+        if (songData.md5() == null || songData.sha256() == null) return;
+        synchronized (songs) {
+            if (songData.equals(songs.put(songData.md5(), songData))) {
+                songs.put(songData.sha256(), songData);
+                return;
+            }
+            songs.put(songData.sha256(), songData);
+        }
+        learnedCount.incrementAndGet();
+    }
+
+    /**
+     * 見つかった結果の対応をまとめて覚える
+     * 検索している間にセッションの世代が変わっていれば、古いデータの結果なので覚えない
+     *
+     * @param results    結果（楽曲データがnullの結果は無視する）
+     * @param generation 検索を始めた時のセッションの世代
+     */
+    public void learnAll(List<SongDataAccessor.Result> results, long generation) {
+        synchronized (songs) {
+            if (generation != this.generation) return;
+            for (final SongDataAccessor.Result result : results) {
+                if (result.songData() != null) {
+                    learn(result.songData());
+                }
+            }
+        }
+    }
+
+    /**
+     * セッションの世代が前回から変わっていれば全て忘れる
+     *
+     * @param generation 現在のセッションの世代（SongDataPollingControllerが全てのアクセサから求める）
+     */
+    public void validate(long generation) {
+        synchronized (songs) {
+            if (generation == this.generation) return;
+            this.generation = generation;
+            if (songs.isEmpty()) return;
+            songs.clear();
+        }
+        invalidationCount.incrementAndGet();
+    }
+
+    /**
+     * ハッシュから楽曲データを探す
+     *
+     * @param hash MD5またはSHA-256ハッシュ
+     * @return 楽曲データ（対応を知らなければnull）
+     */
+    public SongData find(HashKey hash) {
+        final SongData songData;
+        synchronized (songs) {
+            songData = songs.get(hash);
+        }
+        lookupCount.incrementAndGet();
+        if (songData != null) {
+            hitCount.incrementAndGet();
+        }
+        return songData;
+    }
+
+    /**
+     * リクエストを対応を知っているものと知らないものに分ける
+     *
+     * @param requests     リクエスト
+     * @param foundResults 対応を知っているリクエストの結果の追加先
+     * @return 対応を知らないリクエスト
+     */
+    public List<SongDataAccessor.Request> findAll(List<SongDataAccessor.Request> requests,
+                                                  List<SongDataAccessor.Result> foundResults) {
+        final List<SongDataAccessor.Request> notFoundRequests = new ArrayList<>();
+        for (final SongDataAccessor.Request request : requests) {
+            final SongData songData = find(request.hash());
+            if (songData != null) {
+                foundResults.add(new SongDataAccessor.Result(request.hash(), songData));
+            } else {
+                notFoundRequests.add(request);
+            }
+        }
+        return notFoundRequests;
+    }
+
+    /**
+     * 現在の統計を返す
+     */
+    public Stats getStats() {
+        final int size;
+        synchronized (songs) {
+            size = songs.size();
+        }
+        return new Stats(lookupCount.get(), hitCount.get(), learnedCount.get(),
+                invalidationCount.get(), size);
+    }
+
+    /**
+     * 統計
+     *
+     * @param lookupCount       問い合わせた回数
+     * @param hitCount          楽曲データを返した回数
+     * @param learnedCount      新しく覚えた対応の数
+     * @param invalidationCount 開き直しで全て忘れた回数
+     * @param keyCount          保持しているハッシュの数（対応1つにつき最大2つ）
+     */
+    public record Stats(long lookupCount, long hitCount, long learnedCount,
+                        long invalidationCount, int keyCount) {
+        /**
+         * ヒット率（問い合わせがなければ0）
+         */
+        public double hitRate() {
+            return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("lookups=%d hits=%d (%.1f%%) learned=%d invalidations=%d keys=%d",
+                    lookupCount, hitCount, hitRate() * 100, learnedCount, invalidationCount,
+                    keyCount);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.HashKey;
+
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteLimits;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IN句のプレースホルダの数を決まった大きさに揃えるためのユーティリティクラス
+ * 数を揃えることで、件数の異なる検索でも同じSQLになりStatementCacheで使い回せる
+ * 余ったプレースホルダにはどの行にも一致しないNULLを設定する
+ */
+final class InListBucket {
+    /**
+     * プレースホルダの数の候補（昇順）
+     */
+    static final int[] BUCKET_SIZES = {1, 8, 32, 128, 512};
+
+    /**
+     * プレースホルダの数の最大値
+     */
+    static final int MAX_BUCKET_SIZE = BUCKET_SIZES[BUCKET_SIZES.length - 1];
+
+    /**
+     * 上限を取得できなかった場合に使う、1つのSQLのプレースホルダの数の上限
+     * SQLite 3.32.0より前のSQLITE_MAX_VARIABLE_NUMBERの既定値
+     */
+    static final int DEFAULT_MAX_VARIABLE_NUMBER = 999;
+
+    private InListBucket() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * 件数を収められる最小のプレースホルダの数を返す
+     * MAX_BUCKET_SIZEを超える場合は件数をそのまま返す
+     *
+     * @param count 件数
+     * @return プレースホルダの数
+     */
+    static int bucketSize(int count) {
+        for (final int size : BUCKET_SIZES) {
+            if (count <= size) return size;
+        }
+        return count;
+    }
+
+    /**
+     * プレースホルダの数がBUCKET_SIZESのいずれかか（StatementCacheに入れてよいか）
+     */
+    static boolean isBucketed(int size) {
+        return size <= MAX_BUCKET_SIZE;
+    }
+
+    /**
+     * 接続の1つのSQLに含められるプレースホルダの数の上限（SQLITE_LIMIT_VARIABLE_NUMBER）を返す
+     *
+     * @param connection SQLiteの接続
+     * @return 上限（取得できなければDEFAULT_MAX_VARIABLE_NUMBER）
+     */
+    static int getMaxVariableNumber(Connection connection) {
+        try {
+            final int limit = connection.unwrap(SQLiteConnection.class).getDatabase()
+                    .limit(SQLiteLimits.SQLITE_LIMIT_VARIABLE_NUMBER.getId(), -1);
+            return limit > 0 ? limit : DEFAULT_MAX_VARIABLE_NUMBER;
+        } catch (SQLException e) {
+            return DEFAULT_MAX_VARIABLE_NUMBER;
+        }
+    }
+
+    /**
+     * IN句を複数含むSQLで、一度に検索できるハッシュの最大数を返す
+     * どのIN句に何件が割り振られても、揃えた後のプレースホルダの合計が上限を超えない最大のBUCKET_SIZESの値になる
+     *
+     * @param maxVariableNumber プレースホルダの数の上限
+     * @param inListCount       IN句の数
+     * @return ハッシュの最大数
+     */
+    static int maxRequestCount(int maxVariableNumber, int inListCount) {
+        int maxCount = BUCKET_SIZES[0];
+        for (final int size : BUCKET_SIZES) {
+            if (size * inListCount <= maxVariableNumber) {
+                maxCount = size;
+            }
+        }
+        return maxCount;
+    }
+
+    /**
+     * 指定した数のプレースホルダをカンマ区切りで返す
+     */
+    static String placeholders(int size) {
+        return String.join(",", Collections.nCopies(size, "?"));
+    }
+
+    /**
+     * ハッシュを16進数の文字列として設定し、余ったプレースホルダにはNULLを設定する
+     *
+     * @param statement  PreparedStatement
+     * @param startIndex 最初のプレースホルダの番号（1から）
+     * @param hashes     ハッシュ
+     * @param size       プレースホルダの数
+     * @return 次のプレースホルダの番号
+     * @throws SQLException SQLに関する例外
+     */
+    static int bind(PreparedStatement statement, int startIndex, List<? extends HashKey> hashes,
+                    int size) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            if (i < hashes.size()) {
+                statement.setString(startIndex + i, hashes.get(i).toHex());
+            } else {
+                statement.setNull(startIndex + i, Types.VARCHAR);
+            }
+        }
+        return startIndex + size;
+    }
+}
@@ -0,0 +1,113 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.lib.LruCache;
+import com.getaji.bmshashwatcher.model.HashKey;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * アクセサで見つからなかったハッシュを覚えておき、同じハッシュの検索を省くキャッシュ
+ * アクセサが開き直された場合はSongDataPollerが全て忘れさせる
+ * スレッドセーフ
+ */
+public class NegativeLookupCache {
+    public static final int DEFAULT_MAX_SIZE = 65536;
+
+    private final LruCache<HashKey, Long> entries;
+    private long ttlNanos = 0;
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    public NegativeLookupCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize 覚えておくハッシュの最大数
+     */
+    public NegativeLookupCache(int maxSize) {
+        entries = new LruCache<>(maxSize);
+    }
+
+    /**
+     * 見つからなかったハッシュを覚えておく時間を設定する
+     *
+     * @param ttlMillis 時間（ミリ秒、0なら無期限）
+     */
+    public synchronized void setTtlMillis(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must be 0 or more");
+        }
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * ハッシュが見つからないことを覚えているか
+     *
+     * @param hash ハッシュ
+     * @return 覚えていればtrue（検索を省いてよい）
+     */
+    public synchronized boolean contains(HashKey hash) {
+        lookupCount.incrementAndGet();
+        final Long addedAt = entries.get(hash);
+        if (addedAt == null) return false;
+        if (ttlNanos > 0 && System.nanoTime() - addedAt > ttlNanos) {
+            entries.remove(hash);
+            return false;
+        }
+        hitCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 見つからなかったハッシュを覚える
+     *
+     * @param hash ハッシュ
+     */
+    public synchronized void add(HashKey hash) {
+        entries.put(hash, System.nanoTime());
+    }
+
+    /**
+     * 全て忘れる
+     */
+    public synchronized void invalidate() {
+        if (!entries.isEmpty()) {
+            invalidationCount.incrementAndGet();
+        }
+        entries.clear();
+    }
+
+    /**
+     * 現在の統計を返す
+     */
+    public synchronized Stats getStats() {
+        return new Stats(lookupCount.get(), hitCount.get(), invalidationCount.get(),
+                entries.size());
+    }
+
+    /**
+     * 統計
+     *
+     * @param lookupCount       問い合わせた回数
+     * @param hitCount          見つからないと答えた回数（省いた検索の数）
+     * @param invalidationCount 開き直しなどで全て忘れた回数
+     * @param size              覚えているハッシュの数
+     */
+    public record Stats(long lookupCount, long hitCount, long invalidationCount, int size) {
+        /**
+         * ヒット率（問い合わせがなければ0）
+         */
+        public double hitRate() {
+            return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("lookups=%d saved=%d (%.1f%%) invalidations=%d size=%d",
+                    lookupCount, hitCount, hitRate() * 100, invalidationCount, size);
+        }
+    }
+}
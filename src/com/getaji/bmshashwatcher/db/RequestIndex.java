@@ -0,0 +1,55 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.HashKey;
+import com.getaji.bmshashwatcher.model.SongData;
+
+import java.util.*;
+
+/**
+ * findAllで検索した行をリクエストに対応付けるためのハッシュの索引
+ * 行ごとにリクエストを走査しないので、件数が多くても行数とリクエスト数に比例する時間で済む
+ * 1つの行がMD5とSHA-256の両方のリクエストに一致する場合は、両方の結果になる
+ */
+class RequestIndex {
+    private final List<SongDataAccessor.Request> requests;
+    private final Set<HashKey> requestedHashes;
+    private final Map<HashKey, SongData> foundSongs;
+
+    RequestIndex(List<SongDataAccessor.Request> requests) {
+        this.requests = requests;
+        requestedHashes = new HashSet<>(requests.size() * 2);
+        for (final SongDataAccessor.Request request : requests) {
+            requestedHashes.add(request.hash());
+        }
+        foundSongs = new HashMap<>(requests.size() * 2);
+    }
+
+    /**
+     * 行の楽曲データを、そのMD5またはSHA-256をリクエストした結果として登録する
+     * 同じハッシュに一致する行が複数ある場合は最初の行を使う
+     *
+     * @param songData 楽曲データ
+     */
+    void add(SongData songData) {
+        if (songData.md5() != null && requestedHashes.contains(songData.md5())) {
+            foundSongs.putIfAbsent(songData.md5(), songData);
+        }
+        if (songData.sha256() != null && requestedHashes.contains(songData.sha256())) {
+            foundSongs.putIfAbsent(songData.sha256(), songData);
+        }
+    }
+
+    /**
+     * リクエストの順に結果を返す
+     * 一致する行がなかったリクエストの楽曲データはnullになる
+     *
+     * @return リクエストと同じ件数の結果
+     */
+    List<SongDataAccessor.Result> toResults() {
+        final List<SongDataAccessor.Result> results = new ArrayList<>(requests.size());
+        for (final SongDataAccessor.Request request : requests) {
+            results.add(new SongDataAccessor.Result(request.hash(), foundSongs.get(request.hash())));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,471 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.HashKey;
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
+import com.getaji.bmshashwatcher.model.SongData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 取得済みの楽曲データを起動をまたいで保持するファイルのキャッシュ
+ * ファイルはメモリマップして読み書きし、起動時に読み込み直さないので、件数によらず一定の時間で開ける
+ * <p>
+ * ファイルの構成（先頭から）:
+ * <ul>
+ *     <li>ヘッダ（64バイト）</li>
+ *     <li>MD5とSHA-256それぞれのオープンアドレス法のハッシュ表（レコード番号+1、0は空き）</li>
+ *     <li>固定長のレコード（64バイト、ハッシュ表の大きさの半分まで）</li>
+ *     <li>タイトルとサブタイトルのUTF-8の文字列</li>
+ * </ul>
+ * レコードは追記のみで、容量が足りなくなるとファイルを広げて配置し直す
+ * ヘッダが壊れている（件数や大きさが範囲外の場合を含む）、または配置し直す途中で終了していた場合は空のキャッシュとして作り直す
+ * <p>
+ * 楽曲のデータベースで名前が変わった楽曲や削除された楽曲も残るため、データベースで見つからなかった時の代わりとして使う
+ */
+public final class ResolvedSongCache implements AutoCloseable {
+    public static final String DEFAULT_FILE_NAME = "song_cache.dat";
+
+    private static final int MAGIC = 0x42485743;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+    private static final int INITIAL_TABLE_CAPACITY = 4096;
+    private static final int INITIAL_TEXT_CAPACITY = 128 * 1024;
+
+    // ヘッダのオフセット
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int TABLE_CAPACITY_OFFSET = 8;
+    private static final int RECORD_COUNT_OFFSET = 12;
+    private static final int TEXT_SIZE_OFFSET = 16;
+    private static final int TEXT_CAPACITY_OFFSET = 20;
+    private static final int STATE_OFFSET = 24;
+
+    private static final int STATE_CLEAN = 0;
+    private static final int STATE_REBUILDING = 1;
+
+    // レコードのオフセット
+    private static final int MD5_OFFSET = 0;
+    private static final int SHA256_OFFSET = 16;
+    private static final int FLAGS_OFFSET = 48;
+    private static final int TEXT_OFFSET_OFFSET = 52;
+    private static final int TITLE_LENGTH_OFFSET = 56;
+    private static final int SUBTITLE_LENGTH_OFFSET = 60;
+
+    private static final byte HAS_MD5 = 1;
+    private static final byte HAS_SHA256 = 2;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private MappedByteBuffer buffer;
+    private int tableCapacity;
+    private int textCapacity;
+    private boolean isClosed = false;
+
+    private ResolvedSongCache(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * キャッシュのファイルを開く（なければ作成する）
+     *
+     * @param path ファイルのパス
+     * @return キャッシュ
+     * @throws IOException           ファイルを開けない
+     * @throws IllegalStateException 他のプロセスが使用している
+     */
+    public static ResolvedSongCache open(Path path) throws IOException, IllegalStateException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                throw new IllegalStateException("キャッシュのファイルは既に開かれています: " + path);
+            }
+            if (lock == null) {
+                throw new IllegalStateException("キャッシュのファイルは他のプロセスが使用しています: " + path);
+            }
+            final ResolvedSongCache cache = new ResolvedSongCache(channel, lock);
+            cache.load();
+            return cache;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize >= HEADER_SIZE) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            final int capacity = header.getInt(TABLE_CAPACITY_OFFSET);
+            final int text = header.getInt(TEXT_CAPACITY_OFFSET);
+            final int count = header.getInt(RECORD_COUNT_OFFSET);
+            final int textSize = header.getInt(TEXT_SIZE_OFFSET);
+            final boolean isValid = header.getInt(MAGIC_OFFSET) == MAGIC
+                    && header.getInt(VERSION_OFFSET) == VERSION
+                    && header.getInt(STATE_OFFSET) == STATE_CLEAN
+                    && capacity >= INITIAL_TABLE_CAPACITY && Integer.bitCount(capacity) == 1
+                    && text >= INITIAL_TEXT_CAPACITY
+                    && fileSize(capacity, text) <= Integer.MAX_VALUE
+                    && fileSize >= fileSize(capacity, text)
+                    && count >= 0 && count <= capacity / 2
+                    && textSize >= 0 && textSize <= text;
+            if (isValid) {
+                map(capacity, text);
+                return;
+            }
+        }
+        // 新規作成か壊れている場合は空にする
+        channel.truncate(0);
+        map(INITIAL_TABLE_CAPACITY, INITIAL_TEXT_CAPACITY);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        writeLayout();
+    }
+
+    private static long fileSize(int tableCapacity, int textCapacity) {
+        return HEADER_SIZE + (long) tableCapacity * Integer.BYTES * 2
+                + (long) (tableCapacity / 2) * RECORD_SIZE + textCapacity;
+    }
+
+    private void map(int tableCapacity, int textCapacity) throws IOException {
+        this.tableCapacity = tableCapacity;
+        this.textCapacity = textCapacity;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                fileSize(tableCapacity, textCapacity));
+    }
+
+    private void writeLayout() {
+        buffer.putInt(TABLE_CAPACITY_OFFSET, tableCapacity);
+        buffer.putInt(TEXT_CAPACITY_OFFSET, textCapacity);
+    }
+
+    private int md5TableOffset() {
+        return HEADER_SIZE;
+    }
+
+    private int sha256TableOffset() {
+        return HEADER_SIZE + tableCapacity * Integer.BYTES;
+    }
+
+    private int recordOffset(int record) {
+        return HEADER_SIZE + tableCapacity * Integer.BYTES * 2 + record * RECORD_SIZE;
+    }
+
+    private int textRegionOffset() {
+        return recordOffset(tableCapacity / 2);
+    }
+
+    /**
+     * 件数
+     */
+    public synchronized int size() {
+        return isClosed ? 0 : buffer.getInt(RECORD_COUNT_OFFSET);
+    }
+
+    /**
+     * ファイルの大きさ（バイト）
+     */
+    public synchronized long getFileSize() {
+        return fileSize(tableCapacity, textCapacity);
+    }
+
+    /**
+     * ハッシュで楽曲データを検索する
+     *
+     * @param hash ハッシュ
+     * @return 楽曲データ（存在しなければnull）
+     */
+    public synchronized SongData find(HashKey hash) {
+        if (isClosed) return null;
+        final int record = findRecord(hash);
+        return record < 0 ? null : readSongData(record);
+    }
+
+    /**
+     * 複数のハッシュで楽曲データを検索する
+     *
+     * @param requests リクエスト
+     * @return リクエストと同じ順の結果
+     */
+    public synchronized List<SongDataAccessor.Result> findAll(List<SongDataAccessor.Request> requests) {
+        final List<SongDataAccessor.Result> results = new ArrayList<>(requests.size());
+        for (final SongDataAccessor.Request request : requests) {
+            results.add(new SongDataAccessor.Result(request.hash(), find(request.hash())));
+        }
+        return results;
+    }
+
+    /**
+     * 楽曲データを追加する
+     * 既にあるレコードが同じハッシュを全て持ち、タイトルとサブタイトルも同じなら何もしない
+     * LR2で取得したMD5のみのデータの後にSHA-256を含むデータを追加した場合や、名前が変わった場合は、新しいレコードを参照する
+     *
+     * @param songData 楽曲データ
+     * @throws IOException ファイルを広げられない
+     */
+    public synchronized void put(SongData songData) throws IOException {
+        if (isClosed) return;
+        if (songData.md5() == null && songData.sha256() == null) return;
+        if (isCovered(songData)) return;
+
+        final byte[] title = toBytes(songData.title());
+        final byte[] subtitle = toBytes(songData.subtitle());
+        final int textLength = (title == null ? 0 : title.length)
+                + (subtitle == null ? 0 : subtitle.length);
+        final int record = buffer.getInt(RECORD_COUNT_OFFSET);
+        final int textSize = buffer.getInt(TEXT_SIZE_OFFSET);
+        if (record >= tableCapacity / 2 || (long) textSize + textLength > textCapacity) {
+            grow(record + 1, (long) textSize + textLength);
+        }
+
+        // 文字列、レコード、ハッシュ表、件数の順に書き込む（途中で終了しても件数を超えるレコードは参照しない）
+        final int textRegion = textRegionOffset();
+        int position = textRegion + textSize;
+        if (title != null) {
+            buffer.put(position, title);
+            position += title.length;
+        }
+        if (subtitle != null) {
+            buffer.put(position, subtitle);
+        }
+
+        final int offset = recordOffset(record);
+        byte flags = 0;
+        if (songData.md5() != null) {
+            flags |= HAS_MD5;
+            buffer.putLong(offset + MD5_OFFSET, songData.md5().getHigh());
+            buffer.putLong(offset + MD5_OFFSET + 8, songData.md5().getLow());
+        }
+        if (songData.sha256() != null) {
+            flags |= HAS_SHA256;
+            for (int i = 0; i < 4; i++) {
+                buffer.putLong(offset + SHA256_OFFSET + i * 8, songData.sha256().getWord(i));
+            }
+        }
+        buffer.put(offset + FLAGS_OFFSET, flags);
+        buffer.putInt(offset + TEXT_OFFSET_OFFSET, textSize);
+        buffer.putInt(offset + TITLE_LENGTH_OFFSET, title == null ? -1 : title.length);
+        buffer.putInt(offset + SUBTITLE_LENGTH_OFFSET, subtitle == null ? -1 : subtitle.length);
+
+        insert(record);
+        buffer.putInt(TEXT_SIZE_OFFSET, textSize + textLength);
+        buffer.putInt(RECORD_COUNT_OFFSET, record + 1);
+    }
+
+    /**
+     * 見つかった結果をまとめて追加する
+     *
+     * @param results 結果（楽曲データがnullの結果は無視する）
+     * @throws IOException ファイルを広げられない
+     */
+    public synchronized void putAll(List<SongDataAccessor.Result> results) throws IOException {
+        for (final SongDataAccessor.Result result : results) {
+            if (result.songData() != null) {
+                put(result.songData());
+            }
+        }
+    }
+
+    private boolean isCovered(SongData songData) {
+        final int record = songData.md5() != null ? findRecord(songData.md5()) :
+                findRecord(songData.sha256());
+        if (record < 0) return false;
+        final byte flags = buffer.get(recordOffset(record) + FLAGS_OFFSET);
+        if (songData.sha256() != null && (flags & HAS_SHA256) == 0) return false;
+        final SongData cached = readSongData(record);
+        return cached != null && Objects.equals(cached.title(), songData.title())
+                && Objects.equals(cached.subtitle(), songData.subtitle());
+    }
+
+    private int findRecord(HashKey hash) {
+        final int count = buffer.getInt(RECORD_COUNT_OFFSET);
+        final int mask = tableCapacity - 1;
+        if (hash instanceof Md5Key md5) {
+            int slot = SongSnapshotIndex.mix(md5.getHigh() ^ md5.getLow()) & mask;
+            int entry;
+            while ((entry = buffer.getInt(md5TableOffset() + slot * Integer.BYTES)) != 0) {
+                final int record = entry - 1;
+                if (record < count && isSameMD5(record, md5)) return record;
+                slot = (slot + 1) & mask;
+            }
+        } else if (hash instanceof Sha256Key sha256) {
+            int slot = SongSnapshotIndex.mix(sha256.getWord(0) ^ sha256.getWord(3)) & mask;
+            int entry;
+            while ((entry = buffer.getInt(sha256TableOffset() + slot * Integer.BYTES)) != 0) {
+                final int record = entry - 1;
+                if (record < count && isSameSHA256(record, sha256)) return record;
+                slot = (slot + 1) & mask;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isSameMD5(int record, Md5Key md5) {
+        final int offset = recordOffset(record);
+        return (buffer.get(offset + FLAGS_OFFSET) & HAS_MD5) != 0
+                && buffer.getLong(offset + MD5_OFFSET) == md5.getHigh()
+                && buffer.getLong(offset + MD5_OFFSET + 8) == md5.getLow();
+    }
+
+    private boolean isSameSHA256(int record, Sha256Key sha256) {
+        final int offset = recordOffset(record);
+        if ((buffer.get(offset + FLAGS_OFFSET) & HAS_SHA256) == 0) return false;
+        for (int i = 0; i < 4; i++) {
+            if (buffer.getLong(offset + SHA256_OFFSET + i * 8) != sha256.getWord(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * レコードをハッシュ表に登録する
+     * 同じハッシュのスロットがあれば新しいレコードで上書きする
+     */
+    private void insert(int record) {
+        final int offset = recordOffset(record);
+        final byte flags = buffer.get(offset + FLAGS_OFFSET);
+        final int mask = tableCapacity - 1;
+        if ((flags & HAS_MD5) != 0) {
+            final Md5Key md5 = new Md5Key(buffer.getLong(offset + MD5_OFFSET),
+                    buffer.getLong(offset + MD5_OFFSET + 8));
+            int slot = SongSnapshotIndex.mix(md5.getHigh() ^ md5.getLow()) & mask;
+            int entry;
+            while ((entry = buffer.getInt(md5TableOffset() + slot * Integer.BYTES)) != 0
+                    && !isSameMD5(entry - 1, md5)) {
+                slot = (slot + 1) & mask;
+            }
+            buffer.putInt(md5TableOffset() + slot * Integer.BYTES, record + 1);
+        }
+        if ((flags & HAS_SHA256) != 0) {
+            final Sha256Key sha256 = new Sha256Key(buffer.getLong(offset + SHA256_OFFSET),
+                    buffer.getLong(offset + SHA256_OFFSET + 8),
+                    buffer.getLong(offset + SHA256_OFFSET + 16),
+                    buffer.getLong(offset + SHA256_OFFSET + 24));
+            int slot = SongSnapshotIndex.mix(sha256.getWord(0) ^ sha256.getWord(3)) & mask;
+            int entry;
+            while ((entry = buffer.getInt(sha256TableOffset() + slot * Integer.BYTES)) != 0
+                    && !isSameSHA256(entry - 1, sha256)) {
+                slot = (slot + 1) & mask;
+            }
+            buffer.putInt(sha256TableOffset() + slot * Integer.BYTES, record + 1);
+        }
+    }
+
+    /**
+     * ファイルを広げ、レコードと文字列を配置し直してハッシュ表を作り直す
+     *
+     * @param minRecords 必要なレコード数
+     * @param minText    必要な文字列のバイト数
+     */
+    private void grow(int minRecords, long minText) throws IOException {
+        final int count = buffer.getInt(RECORD_COUNT_OFFSET);
+        final int textSize = buffer.getInt(TEXT_SIZE_OFFSET);
+        int newTableCapacity = tableCapacity;
+        while (newTableCapacity / 2 < minRecords) {
+            newTableCapacity *= 2;
+        }
+        long newTextCapacity = textCapacity;
+        while (newTextCapacity < minText) {
+            newTextCapacity *= 2;
+        }
+        if (fileSize(newTableCapacity, (int) Math.min(newTextCapacity, Integer.MAX_VALUE))
+                > Integer.MAX_VALUE) {
+            throw new IOException("キャッシュのファイルが大きすぎます");
+        }
+
+        final byte[] records = new byte[count * RECORD_SIZE];
+        buffer.get(recordOffset(0), records);
+        final byte[] text = new byte[textSize];
+        buffer.get(textRegionOffset(), text);
+
+        buffer.putInt(STATE_OFFSET, STATE_REBUILDING);
+        buffer.force();
+
+        map(newTableCapacity, (int) newTextCapacity);
+        final byte[] zeros = new byte[tableCapacity * Integer.BYTES * 2];
+        buffer.put(md5TableOffset(), zeros);
+        buffer.put(recordOffset(0), records);
+        buffer.put(textRegionOffset(), text);
+        for (int i = 0; i < count; i++) {
+            insert(i);
+        }
+        writeLayout();
+        buffer.force();
+        buffer.putInt(STATE_OFFSET, STATE_CLEAN);
+    }
+
+    /**
+     * レコードを読み込む
+     *
+     * @return 楽曲データ（文字列の位置が壊れている場合はnull）
+     */
+    private SongData readSongData(int record) {
+        final int offset = recordOffset(record);
+        final int textPosition = buffer.getInt(offset + TEXT_OFFSET_OFFSET);
+        final int titleLength = buffer.getInt(offset + TITLE_LENGTH_OFFSET);
+        final int subtitleLength = buffer.getInt(offset + SUBTITLE_LENGTH_OFFSET);
+        if (textPosition < 0 || titleLength < -1 || subtitleLength < -1
+                || (long) textPosition + Math.max(0, titleLength) + Math.max(0, subtitleLength)
+                > buffer.getInt(TEXT_SIZE_OFFSET)) {
+            return null;
+        }
+        final byte flags = buffer.get(offset + FLAGS_OFFSET);
+        final Md5Key md5 = (flags & HAS_MD5) != 0 ?
+                new Md5Key(buffer.getLong(offset + MD5_OFFSET),
+                        buffer.getLong(offset + MD5_OFFSET + 8)) : null;
+        final Sha256Key sha256 = (flags & HAS_SHA256) != 0 ?
+                new Sha256Key(buffer.getLong(offset + SHA256_OFFSET),
+                        buffer.getLong(offset + SHA256_OFFSET + 8),
+                        buffer.getLong(offset + SHA256_OFFSET + 16),
+                        buffer.getLong(offset + SHA256_OFFSET + 24)) : null;
+        final int textOffset = textRegionOffset() + textPosition;
+        final String title = readString(textOffset, titleLength);
+        final String subtitle = readString(textOffset + Math.max(0, titleLength), subtitleLength);
+        return new SongData(md5, sha256, title, subtitle);
+    }
+
+    private String readString(int offset, int length) {
+        if (length < 0) return null;
+        final byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toBytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 書き込みをファイルに反映して閉じる
+     *
+     * @throws IOException ファイルを閉じられない
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (isClosed) return;
+        isClosed = true;
+        try {
+            buffer.force();
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.getaji.bmshashwatcher.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * アクセサの現在のセッションを保持し、不可分に差し替えるクラス
+ * 差し替えた後も、古いセッションで実行中の検索はそのまま完了する
+ */
+class SessionHolder {
+    private final AtomicReference<SongDatabaseSession> current = new AtomicReference<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    boolean isOpen() {
+        return current.get() != null;
+    }
+
+    /**
+     * 現在のセッションを返す
+     *
+     * @return セッション
+     * @throws IllegalStateException 開かれていない
+     */
+    SongDatabaseSession require() throws IllegalStateException {
+        final SongDatabaseSession session = current.get();
+        if (session == null) {
+            throw new IllegalStateException("データベースが開かれていません");
+        }
+        return session;
+    }
+
+    /**
+     * セッションを差し替えた回数を返す
+     * 差し替えた後に増やすので、この値を読んでから検索すれば新しいセッションの結果になる
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * セッションを差し替え、古いセッションを閉じる
+     *
+     * @param session 新しいセッション（閉じるだけならnull）
+     * @throws SQLException 古いセッションを閉じるのに失敗
+     */
+    void replace(SongDatabaseSession session) throws SQLException {
+        final SongDatabaseSession oldSession = current.getAndSet(session);
+        generation.incrementAndGet();
+        if (oldSession != null) {
+            oldSession.close();
+        }
+    }
+
+    /**
+     * 現在のセッションで同期して処理を実行する
+     * 実行を待っている間にセッションが閉じられた場合は、差し替え後のセッションでやり直す
+     *
+     * @param function 処理
+     * @return 処理の結果
+     * @throws SQLException SQLに関する例外
+     */
+    <T> T query(SessionFunction<T> function) throws SQLException {
+        while (true) {
+            final SongDatabaseSession session = require();
+            synchronized (session) {
+                if (!session.isClosed()) {
+                    return function.apply(session);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface SessionFunction<T> {
+        T apply(SongDatabaseSession session) throws SQLException;
+    }
+}
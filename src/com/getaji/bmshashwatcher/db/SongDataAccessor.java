@@ -1,12 +1,11 @@
 package com.getaji.bmshashwatcher.db;
 
-import com.getaji.bmshashwatcher.model.BMSHashData;
-import com.getaji.bmshashwatcher.model.Config;
-import com.getaji.bmshashwatcher.model.SongData;
-import com.getaji.bmshashwatcher.model.SupportedHashType;
+import com.getaji.bmshashwatcher.model.*;
 
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * 楽曲データにアクセスするインターフェース
@@ -34,6 +33,37 @@ public interface SongDataAccessor {
      */
     void close() throws SQLException;
 
+    /**
+     * アクセサを開き直す
+     * データベースのファイルが更新された時にSongDatabaseWatcherから呼び出される
+     *
+     * @param config 設定データ
+     * @throws SQLException           SQLに関する例外
+     * @throws ClassNotFoundException JDBC初期化失敗などの例外
+     * @throws IllegalStateException  不正な状態に関する例外
+     */
+    default void reopen(Config config) throws SQLException, ClassNotFoundException,
+            IllegalStateException {
+        close();
+        open(config);
+    }
+
+    /**
+     * 開く・開き直す・閉じるたびに変わる値を返す
+     * SongDatabaseWatcherによる開き直しも含むので、検索結果のキャッシュを捨てる判断に使う
+     *
+     * @return セッションの世代
+     */
+    long getSessionGeneration();
+
+    /**
+     * 設定から楽曲データベースのファイルのパスを取得する
+     *
+     * @param config 設定データ
+     * @return データベースのファイルのパス
+     */
+    Path getDatabasePath(Config config);
+
     /**
      * MD5ハッシュで楽曲データを検索する
      *
@@ -41,7 +71,7 @@ public interface SongDataAccessor {
      * @return 結果
      * @throws SQLException SQLに関する例外
      */
-    Result findBMSByMD5(String hash) throws SQLException;
+    Result findBMSByMD5(Md5Key hash) throws SQLException;
 
     /**
      * SHA-256ハッシュで楽曲データを検索する
@@ -50,10 +80,59 @@ public interface SongDataAccessor {
      * @return 結果
      * @throws SQLException SQLに関する例外
      */
-    Result findBMSBySHA256(String hash) throws SQLException;
+    Result findBMSBySHA256(Sha256Key hash) throws SQLException;
 
+    /**
+     * 複数のハッシュで楽曲データを検索する
+     * 件数が多い場合はBulkLookupEngineでgetMaxRequestsPerQuery以下に分割して呼び出す
+     *
+     * @param hashList リクエスト
+     * @return リクエストと同じ順の結果
+     * @throws SQLException SQLに関する例外
+     */
     List<Result> findAll(List<Request> hashList) throws SQLException;
 
+    /**
+     * findAllに一度に渡すリクエストの最大数
+     * 接続のプレースホルダの数の上限から決まるので、開いた後に呼び出す
+     *
+     * @return リクエストの最大数
+     */
+    default int getMaxRequestsPerQuery() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 複数のハッシュを一時テーブルに入れ、楽曲データのテーブルと結合して検索する
+     * 件数に上限はない。サポートしていない場合はfindAllで検索する
+     *
+     * @param requests リクエスト
+     * @return リクエストと同じ順の結果
+     * @throws SQLException SQLに関する例外
+     */
+    default List<Result> findAllWithTempTable(List<Request> requests) throws SQLException {
+        return findAll(requests);
+    }
+
+    /**
+     * findAllよりfindAllWithTempTableの方が速くなるリクエストの最小数
+     * 開いた時にデータベースの索引から決まる
+     *
+     * @return リクエストの最小数（一時テーブルを使わない場合はInteger.MAX_VALUE）
+     */
+    default int getTempTableThreshold() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 存在しないハッシュの検索を省くフィルタを返す
+     *
+     * @return フィルタ（使わない場合や作成中は空）
+     */
+    default Optional<SongHashFilter> getHashFilter() {
+        return Optional.empty();
+    }
+
     /**
      * このアクセサがサポートしているハッシュの種類を返す
      */
@@ -98,16 +177,26 @@ public interface SongDataAccessor {
         }
     }
 
-    record Request(BMSHashData.HashType hashType, String hash) {
+    /**
+     * 楽曲データを取得するリクエストを格納するレコード
+     *
+     * @param hash 検索するハッシュ値
+     */
+    record Request(HashKey hash) {
+        public BMSHashData.HashType hashType() {
+            return hash.hashType();
+        }
     }
 
     /**
      * 楽曲データを取得した結果を格納するレコード
      *
-     * @param hashType 取得時に指定されたハッシュの種類
      * @param hash     取得時に指定されたハッシュ値
      * @param songData 取得した結果（存在しなければnull）
      */
-    record Result(BMSHashData.HashType hashType, String hash, SongData songData) {
+    record Result(HashKey hash, SongData songData) {
+        public BMSHashData.HashType hashType() {
+            return hash.hashType();
+        }
     }
 }
@@ -1,60 +1,126 @@
 package com.getaji.bmshashwatcher.db;
 
 import com.getaji.bmshashwatcher.Main;
-import com.getaji.bmshashwatcher.model.BMSHashData;
+import com.getaji.bmshashwatcher.model.Config;
+import com.getaji.bmshashwatcher.model.HashKey;
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
 import javafx.application.Platform;
 import javafx.scene.control.Alert;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
- * 楽曲データをCachedThreadPoolで取得するクラス
+ * 楽曲データをアクセサごとの専用のスレッドで取得するクラス
+ * アクセサを開く・閉じる・検索する処理は全てこのスレッドで順に実行されるので、
+ * クリップボードとインポートから同時に要求されても接続が同時に使われることはない
+ * 待機中の処理はリクエストの少ない順に実行し、インポートの間もクリップボードの検索を待たせない
+ * 再接続の要求と有効状態はどのスレッドから変更してもよい
+ * 見つからなかったハッシュはNegativeLookupCacheに覚え、アクセサが開き直されるまで検索を省く
  */
 public class SongDataPoller {
     private final SongDataAccessor accessor;
+    private final Supplier<Config> configSupplier;
     private final ExecutorService executorService;
+    // このpollerのスレッド（作成されるまではnull）
+    private volatile Thread ownerThread;
+    private final AtomicLong taskSequence = new AtomicLong();
+    private final NegativeLookupCache negativeCache = new NegativeLookupCache();
+    // negativeCacheの内容を検索したセッションの世代（このpollerのスレッドだけで使う）
+    private long negativeCacheGeneration = -1;
     private Consumer<SongDataAccessor.Result> singleConsumer;
-    private Consumer<List<SongDataAccessor.Result>> multipleConsumer;
-    private boolean isReconnectRequired = false;
-    private boolean isEnable = true;
+    private final AtomicBoolean isReconnectRequired = new AtomicBoolean(false);
+    private volatile boolean isEnable = true;
 
     public SongDataPoller(SongDataAccessor accessor) {
+        this(accessor, () -> Main.getInstance().getConfig());
+    }
+
+    /**
+     * @param accessor       アクセサ
+     * @param configSupplier アクセサを開く時の設定データの取得元（このpollerのスレッドで呼び出される）
+     */
+    SongDataPoller(SongDataAccessor accessor, Supplier<Config> configSupplier) {
         this.accessor = accessor;
-        executorService = Executors.newCachedThreadPool(r -> {
-            final Thread thread = new Thread(r);
+        this.configSupplier = configSupplier;
+        executorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r,
+                    "SongDataPoller-" + accessor.getClass().getSimpleName());
             thread.setDaemon(true);
+            ownerThread = thread;
             return thread;
         });
     }
 
+    /**
+     * 処理をこのpollerのスレッドで実行する
+     *
+     * @param requestCount リクエストの数（少ないほど先に実行する）
+     * @param task         処理
+     */
+    private void submit(int requestCount, Runnable task) {
+        executorService.execute(
+                new PrioritizedTask(requestCount, taskSequence.getAndIncrement(), task));
+    }
+
     public void setSingleConsumer(Consumer<BeatorajaSongDataAccessor.Result> singleConsumer) {
         this.singleConsumer = singleConsumer;
     }
 
+    /**
+     * 複数のリクエストをこのpollerのスレッドで検索し、完了するまで待機する
+     * このpollerのスレッド（チャンクの通知先など）から呼び出された場合は、
+     * 自分自身の完了を待ち続けないように、待機中の処理より先にその場で検索する
+     *
+     * @param requests リクエスト
+     * @return 結果（失敗した場合は空）
+     */
     public Optional<List<SongDataAccessor.Result>> pollAll(List<SongDataAccessor.Request> requests) {
+        final List<SongDataAccessor.Result> results = new ArrayList<>();
+        if (Thread.currentThread() == ownerThread) {
+            return pollAllSafely(requests, results::addAll) ? Optional.of(results) :
+                    Optional.empty();
+        }
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        pollAllAsync(requests, results::addAll, future::complete);
+        return future.join() ? Optional.of(results) : Optional.empty();
+    }
+
+    /**
+     * 複数のリクエストをBulkLookupEngineで分割して検索し、チャンクごとに結果を通知する
+     * 失敗した場合はメッセージを表示し、それまでのチャンクの結果は通知済みになる
+     * このpollerのスレッドで呼び出す
+     *
+     * @param requests      リクエスト
+     * @param chunkConsumer チャンクごとの結果の通知先
+     * @return 全てのチャンクを検索できたか
+     */
+    private boolean pollAll(List<SongDataAccessor.Request> requests,
+                           BulkLookupEngine.ChunkConsumer chunkConsumer) {
         try {
-            if (isReconnectRequired) {
-                if (accessor.isOpen()) {
-                    accessor.close();
-                }
-                isReconnectRequired = false;
-            }
-            if (!accessor.isOpen()) {
-                accessor.open(Main.getInstance().getConfig());
-            }
-            return Optional.of(accessor.findAll(requests));
+            prepareAccessor();
+            final List<SongDataAccessor.Request> unknownRequests =
+                    skipKnownMisses(requests, chunkConsumer);
+            new BulkLookupEngine(accessor).lookup(unknownRequests, results -> {
+                rememberMisses(results);
+                chunkConsumer.accept(results);
+            });
+            return true;
         } catch (SQLException e) {
             e.printStackTrace();
             Main.getInstance().getController().error(
                     "データベースにアクセスできません。ファイルの有無やアクセス権限を確認してください"
             );
-            return Optional.empty();
+            return false;
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
             final Alert alert = new Alert(Alert.AlertType.ERROR);
@@ -64,38 +130,113 @@ public class SongDataPoller {
             );
             alert.showAndWait();
             Platform.exit();
-            return Optional.empty();
+            return false;
+        }
+    }
+
+    /**
+     * 再接続が要求されていれば開き直し、開かれていなければ開く
+     * 要求は1回だけ処理されるように不可分に取り出す
+     */
+    private void prepareAccessor() throws SQLException, ClassNotFoundException {
+        if (isReconnectRequired.getAndSet(false) && accessor.isOpen()) {
+            accessor.reopen(configSupplier.get());
+        }
+        if (!accessor.isOpen()) {
+            accessor.open(configSupplier.get());
+        }
+        // SongDatabaseWatcherは別のスレッドで開き直すので、セッションの世代で検出する
+        // 前回の検索の途中で差し替えられた場合も、古いセッションで覚えた失敗はここで捨てられる
+        final long generation = accessor.getSessionGeneration();
+        if (generation != negativeCacheGeneration) {
+            negativeCache.invalidate();
+            negativeCacheGeneration = generation;
+        }
+    }
+
+    /**
+     * 見つからないと分かっているリクエストの結果を先に通知する
+     *
+     * @param requests      リクエスト
+     * @param chunkConsumer 結果の通知先
+     * @return 検索が必要なリクエスト
+     */
+    private List<SongDataAccessor.Request> skipKnownMisses(
+            List<SongDataAccessor.Request> requests,
+            BulkLookupEngine.ChunkConsumer chunkConsumer) {
+        final List<SongDataAccessor.Request> unknownRequests = new ArrayList<>();
+        final List<SongDataAccessor.Result> missResults = new ArrayList<>();
+        for (final SongDataAccessor.Request request : requests) {
+            if (negativeCache.contains(request.hash())) {
+                missResults.add(new SongDataAccessor.Result(request.hash(), null));
+            } else {
+                unknownRequests.add(request);
+            }
+        }
+        if (!missResults.isEmpty()) {
+            chunkConsumer.accept(missResults);
+        }
+        return unknownRequests;
+    }
+
+    private void rememberMisses(List<SongDataAccessor.Result> results) {
+        for (final SongDataAccessor.Result result : results) {
+            if (result.songData() == null) {
+                negativeCache.add(result.hash());
+            }
         }
     }
 
+    /**
+     * 複数のリクエストをこのpollerのスレッドで分割して検索する
+     *
+     * @param requests           リクエスト
+     * @param chunkConsumer      チャンクごとの結果の通知先
+     * @param completionConsumer 全てのチャンクを検索できたかの通知先
+     */
     public void pollAllAsync(List<SongDataAccessor.Request> requests,
-                             Consumer<Optional<List<SongDataAccessor.Result>>> consumer) {
-        CompletableFuture
-                .supplyAsync(() -> pollAll(requests), executorService)
-                .thenAccept(consumer);
+                             BulkLookupEngine.ChunkConsumer chunkConsumer,
+                             Consumer<Boolean> completionConsumer) {
+        submit(requests.size(),
+                () -> completionConsumer.accept(pollAllSafely(requests, chunkConsumer)));
+    }
+
+    /**
+     * pollAllを実行し、実行時例外も失敗として扱う
+     * このpollerのスレッドで呼び出す
+     */
+    private boolean pollAllSafely(List<SongDataAccessor.Request> requests,
+                                  BulkLookupEngine.ChunkConsumer chunkConsumer) {
+        try {
+            return pollAll(requests, chunkConsumer);
+        } catch (RuntimeException e) {
+            // パスが未設定の場合など。通知しないと呼び出し元が待ち続ける
+            e.printStackTrace();
+            return false;
+        }
     }
 
-    public void poll(BMSHashData.HashType type, String hash,
-                     Consumer<SongDataAccessor.Result> callback) {
-        if (!accessor.isSupportHashType(type)) {
-            throw new IllegalArgumentException("このpollerは" + type + "をサポートしていません");
+    public void poll(HashKey hash, Consumer<SongDataAccessor.Result> callback) {
+        if (!accessor.isSupportHashType(hash.hashType())) {
+            throw new IllegalArgumentException("このpollerは" + hash.hashType() + "をサポートしていません");
         }
-        executorService.submit(() -> {
+        submit(1, () -> {
             try {
-                if (isReconnectRequired) {
-                    if (accessor.isOpen()) {
-                        accessor.close();
-                    }
-                    isReconnectRequired = false;
-                }
-                if (!accessor.isOpen()) {
-                    accessor.open(Main.getInstance().getConfig());
+                prepareAccessor();
+                if (negativeCache.contains(hash)) {
+                    callback.accept(new SongDataAccessor.Result(hash, null));
+                    return;
                 }
                 final SongDataAccessor.Result songData;
-                switch (type) {
-                    case MD5 -> songData = accessor.findBMSByMD5(hash);
-                    case SHA256 -> songData = accessor.findBMSBySHA256(hash);
-                    default -> throw new IllegalArgumentException("不明なハッシュタイプ: " + type);
+                if (hash instanceof Md5Key md5) {
+                    songData = accessor.findBMSByMD5(md5);
+                } else if (hash instanceof Sha256Key sha256) {
+                    songData = accessor.findBMSBySHA256(sha256);
+                } else {
+                    throw new IllegalArgumentException("不明なハッシュタイプ: " + hash.hashType());
+                }
+                if (songData.songData() == null) {
+                    negativeCache.add(hash);
                 }
                 callback.accept(songData);
             } catch (SQLException e) {
@@ -116,20 +257,30 @@ public class SongDataPoller {
         });
     }
 
-    public void poll(BMSHashData.HashType type, String hash) {
-        poll(type, hash, singleConsumer);
+    public void poll(HashKey hash) {
+        poll(hash, singleConsumer);
     }
 
     public SongDataAccessor getSongDataAccessor() {
         return accessor;
     }
 
+    /**
+     * 見つからなかったハッシュのキャッシュ（TTLの設定と統計の取得に使う）
+     */
+    public NegativeLookupCache getNegativeCache() {
+        return negativeCache;
+    }
+
     public boolean isReconnectRequired() {
-        return isReconnectRequired;
+        return isReconnectRequired.get();
     }
 
+    /**
+     * 次の検索の前にアクセサを開き直すかを設定する
+     */
     public void setReconnectRequired(boolean reconnectRequired) {
-        isReconnectRequired = reconnectRequired;
+        isReconnectRequired.set(reconnectRequired);
     }
 
     public boolean isEnable() {
@@ -139,4 +290,21 @@ public class SongDataPoller {
     public void setEnable(boolean enable) {
         isEnable = enable;
     }
+
+    /**
+     * リクエストの少ない順、同じ数なら追加した順に並ぶ処理
+     */
+    private record PrioritizedTask(int requestCount, long sequence, Runnable task)
+            implements Runnable, Comparable<PrioritizedTask> {
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask o) {
+            final int result = Integer.compare(requestCount, o.requestCount);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
 }
@@ -1,7 +1,9 @@
 package com.getaji.bmshashwatcher.db;
 
-import com.getaji.bmshashwatcher.model.BMSHashData;
+import com.getaji.bmshashwatcher.model.HashKey;
+import com.getaji.bmshashwatcher.model.SongData;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
@@ -17,6 +19,9 @@ public class SongDataPollingController {
     private final List<SongDataPoller> pollers = new ArrayList<>();
 
     private boolean isEnableFallback = true;
+    private boolean isEnableParallel = false;
+    private ResolvedSongCache songCache;
+    private final HashCrossReference crossReference = new HashCrossReference();
     private Consumer<Result> singleConsumer;
     private Consumer<MultipleResult> multipleConsumer;
 
@@ -36,7 +41,7 @@ public class SongDataPollingController {
 
                 // 有効状態かつハッシュタイプをサポートしていれば実行
                 if (nextPoller.isEnable() && nextPoller.getSongDataAccessor().isSupportHashType(result.hashType())) {
-                    nextPoller.poll(result.hashType(), result.hash());
+                    nextPoller.poll(result.hash());
                     return;
                 }
             }
@@ -85,51 +90,170 @@ public class SongDataPollingController {
         isEnableFallback = enableFallback;
     }
 
+    public boolean isEnableParallel() {
+        return isEnableParallel;
+    }
+
+    /**
+     * 複数のリクエストを全てのpollerで同時に検索するかを設定する
+     * 無効なら前のpollerで見つからなかったリクエストだけを次のpollerで検索する
+     *
+     * @param enableParallel 同時に検索するか
+     */
+    public void setEnableParallel(boolean enableParallel) {
+        isEnableParallel = enableParallel;
+    }
+
+    /**
+     * 取得した楽曲データから覚えたMD5とSHA-256の対応
+     * pollerで検索する前に問い合わせ、ヒット率はgetStatsで取得できる
+     * いずれかのアクセサが開き直されると、次の検索の前に全て忘れる
+     */
+    public HashCrossReference getCrossReference() {
+        return crossReference;
+    }
+
+    public Optional<ResolvedSongCache> getSongCache() {
+        return Optional.ofNullable(songCache);
+    }
+
+    /**
+     * 取得済みの楽曲データのキャッシュを設定する
+     * 設定すると、有効な全てのpollerで見つからなかった場合にキャッシュを検索し、pollerで見つかった楽曲データを追加する
+     * データベースで名前が変わった楽曲はpollerの結果が優先され、キャッシュも新しい名前に更新される
+     *
+     * @param songCache キャッシュ（使わなければnull）
+     */
+    public void setSongCache(ResolvedSongCache songCache) {
+        this.songCache = songCache;
+    }
+
     public void setSingleConsumer(Consumer<Result> singleConsumer) {
         this.singleConsumer = singleConsumer;
     }
 
     /**
      * 単一のpollerを受け取り、複数のリクエストを処理する。
-     * 楽曲データがnullではない結果のリストは内部のmultipleConsumerに渡す。
+     * リクエストはチャンクに分割して検索され、楽曲データがnullではない結果のリストはチャンクごとに内部のmultipleConsumerに渡す。
      * 楽曲データがnullの結果のリスト（0件の場合は空のリスト）はCompletableFutureにセットする。
+     * 検索に失敗した場合は、それまでのチャンクで見つからなかったものと未検索のものを合わせた結果をセットする。
      *
-     * @param poller   poller
-     * @param requests リクエストのリスト
+     * @param poller     poller
+     * @param requests   リクエストのリスト
+     * @param generation 検索を始めた時のセッションの世代
      * @return 結果処理後に完了されるCompletableFuture
      */
     private CompletableFuture<List<SongDataAccessor.Result>> pollAll(SongDataPoller poller,
-                                                                     List<SongDataAccessor.Request> requests) {
+                                                                     List<SongDataAccessor.Request> requests,
+                                                                     long generation) {
         final CompletableFuture<List<SongDataAccessor.Result>> completableFuture =
                 new CompletableFuture<>();
+        final List<SongDataAccessor.Result> notFoundResults = new ArrayList<>();
+        final Set<HashKey> foundHashes = new HashSet<>();
         poller.pollAllAsync(requests, results -> {
-            if (results.isEmpty() || results.get().isEmpty()) {
-                multipleConsumer.accept(
-                        new MultipleResult(poller.getSongDataAccessor(),
-                                results.orElse(Collections.emptyList()))
-                );
-                return;
-            }
             final Map<Boolean, List<SongDataAccessor.Result>> resultsByFound =
-                    results.get().stream().collect(
+                    results.stream().collect(
                     Collectors.groupingBy(result -> result.songData() != null)
             );
-            final Optional<List<SongDataAccessor.Result>> foundResults =
-                    Optional.of(resultsByFound.getOrDefault(true, Collections.emptyList()));
-            final Optional<List<SongDataAccessor.Result>> notFoundResults =
-                    Optional.of(resultsByFound.getOrDefault(false, Collections.emptyList()));
-            if (!foundResults.get().isEmpty()) {
+            final List<SongDataAccessor.Result> foundResults =
+                    resultsByFound.getOrDefault(true, Collections.emptyList());
+            // 見つかった結果は全てのチャンクを待たずに渡す
+            if (!foundResults.isEmpty()) {
+                foundResults.forEach(result -> foundHashes.add(result.hash()));
+                learn(foundResults, generation);
                 multipleConsumer.accept(new MultipleResult(poller.getSongDataAccessor(),
-                        foundResults.get()));
+                        foundResults));
+            }
+            notFoundResults.addAll(resultsByFound.getOrDefault(false, Collections.emptyList()));
+        }, isSucceeded -> {
+            if (!isSucceeded) {
+                multipleConsumer.accept(
+                        new MultipleResult(poller.getSongDataAccessor(), Collections.emptyList())
+                );
+                // 次のpollerで検索できるように、見つかっていないリクエストを全て未取得として完了する
+                completableFuture.complete(requests.stream()
+                        .filter(request -> !foundHashes.contains(request.hash()))
+                        .map(request -> new SongDataAccessor.Result(request.hash(), null))
+                        .toList());
+                return;
             }
-            completableFuture.complete(notFoundResults.get());
+            completableFuture.complete(notFoundResults);
         });
         return completableFuture;
     }
 
     /**
-     * 内部で有効になっているpollerを使用して複数のリクエストを処理する。
+     * 全てのアクセサのセッションの世代の合計
+     * 世代はそれぞれ増える一方なので、いずれかのアクセサが開き直されると必ず変わる
+     */
+    private long getSessionGeneration() {
+        long generation = 0;
+        for (final SongDataAccessor accessor : accessors) {
+            generation += accessor.getSessionGeneration();
+        }
+        return generation;
+    }
+
+    /**
+     * pollerで見つかった結果から対応を覚え、キャッシュに追加する
+     */
+    private void learn(List<SongDataAccessor.Result> foundResults, long generation) {
+        crossReference.learnAll(foundResults, generation);
+        if (songCache == null) return;
+        try {
+            songCache.putAll(foundResults);
+        } catch (IOException e) {
+            // キャッシュに書き込めなくても取得した結果はそのまま渡す
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 覚えている対応で見つからなかったリクエストを返す
+     * 見つかった結果はaccessorをnullとしてmultipleConsumerに渡す
+     *
+     * @param requests リクエストのリスト
+     * @return 見つからなかったリクエストのリスト
+     */
+    private List<SongDataAccessor.Request> pollKnownSongs(List<SongDataAccessor.Request> requests) {
+        final List<SongDataAccessor.Result> foundResults = new ArrayList<>();
+        final List<SongDataAccessor.Request> unknownRequests =
+                crossReference.findAll(requests, foundResults);
+        if (!foundResults.isEmpty()) {
+            multipleConsumer.accept(new MultipleResult(null, foundResults));
+        }
+        return unknownRequests;
+    }
+
+    /**
+     * 有効な全てのpollerで見つからなかったリクエストをキャッシュで検索し、見つからなかった結果を返す
+     * 見つかった結果はaccessorをnullとしてmultipleConsumerに渡す
+     * データベースにない楽曲のデータなので、覚えている対応には加えない
+     *
+     * @param requests リクエストのリスト
+     * @return 見つからなかった結果のリスト
+     */
+    private List<SongDataAccessor.Result> pollCachedSongs(List<SongDataAccessor.Request> requests) {
+        if (songCache == null || requests.isEmpty()) {
+            return requests.stream()
+                    .map(request -> new SongDataAccessor.Result(request.hash(), null))
+                    .toList();
+        }
+        final List<SongDataAccessor.Result> cachedResults = new ArrayList<>();
+        final List<SongDataAccessor.Result> notFoundResults = new ArrayList<>();
+        for (final SongDataAccessor.Result result : songCache.findAll(requests)) {
+            (result.songData() != null ? cachedResults : notFoundResults).add(result);
+        }
+        if (!cachedResults.isEmpty()) {
+            multipleConsumer.accept(new MultipleResult(null, cachedResults));
+        }
+        return notFoundResults;
+    }
+
+    /**
+     * 覚えている対応、内部で有効になっているpoller、キャッシュの順に使用して複数のリクエストを処理する。
      * 各pollerで楽曲データがnullの結果を集約して次のpollerに渡す。
+     * 全てのpollerが無効でもキャッシュは検索する。
      *
      * @param requests リクエストのリスト
      * @throws ExecutionException   例外を伴って完了した場合
@@ -140,35 +264,126 @@ public class SongDataPollingController {
         if (pollers.isEmpty()) {
             throw new IllegalStateException("pollerが登録されていません");
         }
-        List<SongDataAccessor.Request> nextRequests = requests;
+        // 開き直された後に古い対応を返さないように、問い合わせる前に確認する
+        final long generation = getSessionGeneration();
+        crossReference.validate(generation);
+        List<SongDataAccessor.Request> nextRequests = pollKnownSongs(requests);
+        if (isEnableParallel) {
+            pollAllParallel(nextRequests, generation);
+            return;
+        }
         SongDataAccessor lastAccessor = null;
         for (final SongDataPoller poller : pollers) {
+            if (nextRequests.isEmpty()) break;
             if (poller.isEnable()) {
                 lastAccessor = poller.getSongDataAccessor();
                 final CompletableFuture<List<SongDataAccessor.Result>> future = pollAll(poller,
-                        nextRequests);
+                        nextRequests, generation);
                 final List<SongDataAccessor.Result> results = future.get();
-                if (results.isEmpty()) break;
                 nextRequests =
-                        results.stream().map(result -> new SongDataAccessor.Request(result.hashType(), result.hash())).toList();
+                        results.stream().map(result -> new SongDataAccessor.Request(result.hash())).toList();
             }
         }
-        if (!nextRequests.isEmpty()) {
-            final List<SongDataAccessor.Result> results = nextRequests.stream()
-                    .map(request -> new SongDataAccessor.Result(request.hashType(),
-                            request.hash(), null))
-                    .toList();
-            multipleConsumer.accept(new MultipleResult(lastAccessor, results));
+        final List<SongDataAccessor.Result> notFoundResults = pollCachedSongs(nextRequests);
+        if (!notFoundResults.isEmpty()) {
+            multipleConsumer.accept(new MultipleResult(lastAccessor, notFoundResults));
         }
     }
 
-    public void poll(BMSHashData.HashType type, String hash) {
+    /**
+     * 有効な全てのpollerで、サポートしているハッシュのリクエストを同時に検索する
+     * 複数のpollerで見つかった場合は登録順で先のpollerの結果を使う
+     * 全てのpollerの完了を待ってから、見つかった結果をpollerごとにmultipleConsumerに渡す
+     *
+     * @param requests   リクエストのリスト
+     * @param generation 検索を始めた時のセッションの世代
+     * @throws ExecutionException   例外を伴って完了した場合
+     * @throws InterruptedException 現在のスレッドが待ち時間に割り込まれた場合
+     */
+    private void pollAllParallel(List<SongDataAccessor.Request> requests, long generation)
+            throws ExecutionException, InterruptedException {
+        if (requests.isEmpty()) return;
+        final List<SongDataPoller> enabledPollers =
+                pollers.stream().filter(SongDataPoller::isEnable).toList();
+        final List<CompletableFuture<Map<HashKey, SongData>>> futures = new ArrayList<>();
+        for (final SongDataPoller poller : enabledPollers) {
+            final SongDataAccessor accessor = poller.getSongDataAccessor();
+            futures.add(collectAll(poller, requests.stream()
+                    .filter(request -> accessor.isSupportHashType(request.hashType()))
+                    .toList()));
+        }
+
+        final List<Map<HashKey, SongData>> foundSongsList = new ArrayList<>();
+        for (final CompletableFuture<Map<HashKey, SongData>> future : futures) {
+            foundSongsList.add(future.get());
+        }
+        final Map<SongDataAccessor, List<SongDataAccessor.Result>> foundResultsByAccessor =
+                new LinkedHashMap<>();
+        final List<SongDataAccessor.Request> notFoundRequests = new ArrayList<>();
+        for (final SongDataAccessor.Request request : requests) {
+            SongDataAccessor.Result result = null;
+            for (int i = 0; i < enabledPollers.size() && result == null; i++) {
+                final SongData songData = foundSongsList.get(i).get(request.hash());
+                if (songData != null) {
+                    result = new SongDataAccessor.Result(request.hash(), songData);
+                    foundResultsByAccessor.computeIfAbsent(
+                            enabledPollers.get(i).getSongDataAccessor(),
+                            accessor -> new ArrayList<>()
+                    ).add(result);
+                }
+            }
+            if (result == null) {
+                notFoundRequests.add(request);
+            }
+        }
+
+        foundResultsByAccessor.forEach((accessor, results) -> {
+            learn(results, generation);
+            multipleConsumer.accept(new MultipleResult(accessor, results));
+        });
+        final List<SongDataAccessor.Result> notFoundResults = pollCachedSongs(notFoundRequests);
+        if (!notFoundResults.isEmpty()) {
+            final SongDataAccessor lastAccessor = enabledPollers.isEmpty() ? null :
+                    enabledPollers.get(enabledPollers.size() - 1).getSongDataAccessor();
+            multipleConsumer.accept(new MultipleResult(lastAccessor, notFoundResults));
+        }
+    }
+
+    /**
+     * 単一のpollerで複数のリクエストを検索し、見つかった楽曲データを集める
+     * 失敗した場合はpollerがメッセージを表示し、見つからなかったものとして完了する
+     *
+     * @param poller   poller
+     * @param requests リクエストのリスト
+     * @return ハッシュから楽曲データへのマップで完了されるCompletableFuture
+     */
+    private CompletableFuture<Map<HashKey, SongData>> collectAll(SongDataPoller poller,
+                                                                List<SongDataAccessor.Request> requests) {
+        if (requests.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyMap());
+        }
+        final CompletableFuture<Map<HashKey, SongData>> completableFuture =
+                new CompletableFuture<>();
+        // チャンクの通知と完了はどちらもpollerのスレッドで呼び出される
+        final Map<HashKey, SongData> foundSongs = new HashMap<>();
+        poller.pollAllAsync(requests, results -> {
+            for (final SongDataAccessor.Result result : results) {
+                if (result.songData() != null) {
+                    foundSongs.put(result.hash(), result.songData());
+                }
+            }
+        }, isSucceeded -> completableFuture.complete(
+                isSucceeded ? foundSongs : Collections.emptyMap()));
+        return completableFuture;
+    }
+
+    public void poll(HashKey hash) {
         if (pollers.size() == 0) {
             throw new IllegalStateException("pollerが登録されていません");
         }
         for (final SongDataPoller poller : pollers) {
             if (poller.isEnable()) {
-                poller.poll(type, hash);
+                poller.poll(hash);
                 break;
             }
         }
@@ -189,6 +404,12 @@ public class SongDataPollingController {
     public record Result(SongDataAccessor accessor, SongDataAccessor.Result data) {
     }
 
+    /**
+     * 複数のリクエストの結果
+     *
+     * @param accessor 取得したアクセサ（キャッシュで見つかった場合、または有効なアクセサがない場合はnull）
+     * @param data     結果
+     */
     public record MultipleResult(SongDataAccessor accessor, List<SongDataAccessor.Result> data) {
     }
 }
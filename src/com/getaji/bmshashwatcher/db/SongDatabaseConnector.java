@@ -0,0 +1,248 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.Config;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 楽曲データベースへの読み取り専用の接続を開くクラス
+ * 設定で高速読み込みモードが有効なら、メモリマップとページキャッシュを広げて開く
+ * 設定で複製モードが有効なら、オンラインバックアップで一時ファイルに複製し、複製を開く
+ */
+final class SongDatabaseConnector {
+    /**
+     * 高速読み込みモードでメモリマップする最大のバイト数
+     */
+    static final long FAST_READ_MMAP_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * 高速読み込みモードのページキャッシュの大きさ（負の値はKiB単位）
+     */
+    static final int FAST_READ_CACHE_SIZE = -64 * 1024;
+
+    // 削除できなかった複製（フィルタの作成中の接続が開いていた場合など）
+    private static final Set<Path> undeletedCopies = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean isShutdownHookAdded = new AtomicBoolean(false);
+
+    private SongDatabaseConnector() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * 接続の開き方
+     */
+    enum ReadMode {
+        /**
+         * 読み取り専用で開く
+         */
+        NORMAL,
+        /**
+         * 読み取り専用に加え、メモリマップと大きめのページキャッシュを使う
+         */
+        FAST,
+        /**
+         * FASTに加え、ファイルが変更されないものとしてロックとジャーナルの確認を省く
+         */
+        FAST_IMMUTABLE
+    }
+
+    /**
+     * 設定とデータベースの状態から接続の開き方を決める
+     * 変更されないものとして開くのは、書き込み中を示すジャーナルやWALのファイルがなく、
+     * ファイルがWALモードでない場合に限る（BMSプレイヤーが書き込み中ならFASTにする）
+     *
+     * @param databasePath データベースのファイルのパス
+     * @param config       設定データ
+     * @return 接続の開き方
+     */
+    static ReadMode selectReadMode(Path databasePath, Config config) {
+        if (!config.isFastSongDataRead()) return ReadMode.NORMAL;
+        if (!config.isImmutableSongDataRead()) return ReadMode.FAST;
+        return isImmutableSafe(databasePath) ? ReadMode.FAST_IMMUTABLE : ReadMode.FAST;
+    }
+
+    /**
+     * 変更されないものとして開いても古いデータや壊れたページを読まないか
+     */
+    static boolean isImmutableSafe(Path databasePath) {
+        final String fileName = databasePath.getFileName().toString();
+        for (final String suffix : new String[]{"-journal", "-wal", "-shm"}) {
+            if (Files.exists(databasePath.resolveSibling(fileName + suffix))) return false;
+        }
+        // ヘッダの18バイト目が2ならWALモード（チェックポイント前の内容を読めない）
+        try (final InputStream inputStream = Files.newInputStream(databasePath)) {
+            final byte[] header = inputStream.readNBytes(20);
+            return header.length == 20 && header[18] != 2;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 設定に従って接続を開く
+     * 複製モードでは複製を変更されないものとして開くので、BMSプレイヤーの書き込みを待たない
+     *
+     * @param databasePath データベースのファイルのパス
+     * @param config       設定データ
+     * @return 開いたデータベース
+     * @throws SQLException           SQLに関する例外
+     * @throws ClassNotFoundException JDBC初期化失敗
+     */
+    static OpenedDatabase open(Path databasePath, Config config) throws SQLException,
+            ClassNotFoundException {
+        if (!config.isCopySongData()) {
+            return new OpenedDatabase(open(databasePath, selectReadMode(databasePath, config)),
+                    null);
+        }
+        final Path copyPath = copyToTemporaryFile(databasePath);
+        try {
+            return new OpenedDatabase(open(copyPath, ReadMode.FAST_IMMUTABLE), copyPath);
+        } catch (SQLException | ClassNotFoundException e) {
+            deleteCopy(copyPath);
+            throw e;
+        }
+    }
+
+    /**
+     * 開いたデータベースと同じ内容を読む別の接続を開く
+     * 複製モードでは複製を開くので、元のデータベースが更新されていても同じ内容になる
+     *
+     * @param databasePath データベースのファイルのパス
+     * @param database     開いたデータベース
+     * @param config       設定データ
+     * @return 接続
+     * @throws SQLException           SQLに関する例外
+     * @throws ClassNotFoundException JDBC初期化失敗
+     */
+    static Connection openAnother(Path databasePath, OpenedDatabase database, Config config)
+            throws SQLException, ClassNotFoundException {
+        if (database.copyPath() != null) {
+            return open(database.copyPath(), ReadMode.FAST_IMMUTABLE);
+        }
+        return open(databasePath, selectReadMode(databasePath, config));
+    }
+
+    /**
+     * オンラインバックアップでデータベースを一時ファイルに複製する
+     * 複製の途中で元のデータベースが変更された場合は、SQLiteが最初から複製し直すので一貫した内容になる
+     * 複製はセッションを閉じた時に削除する。前に削除できなかった複製があれば、ここで削除し直す
+     *
+     * @param databasePath データベースのファイルのパス
+     * @return 複製のパス
+     * @throws SQLException           複製に失敗
+     * @throws ClassNotFoundException JDBC初期化失敗
+     */
+    static Path copyToTemporaryFile(Path databasePath) throws SQLException,
+            ClassNotFoundException {
+        deleteUndeletedCopies();
+        final Path copyPath;
+        try {
+            copyPath = Files.createTempFile("bmshashwatcher-", "-" + databasePath.getFileName());
+        } catch (IOException e) {
+            throw new SQLException("楽曲データベースの複製先を作成できません", e);
+        }
+        try (final Connection source = open(databasePath, ReadMode.NORMAL)) {
+            final int result = source.unwrap(SQLiteConnection.class).getDatabase()
+                    .backup("main", copyPath.toString(), null);
+            if (result != 0) {
+                throw new SQLException("楽曲データベースを複製できません（" + result + "）");
+            }
+            return copyPath;
+        } catch (SQLException | ClassNotFoundException e) {
+            deleteCopy(copyPath);
+            throw e;
+        }
+    }
+
+    /**
+     * 複製を削除する
+     * 削除できなければ、次に複製する時と終了時に削除し直す
+     */
+    private static void deleteCopy(Path copyPath) {
+        try {
+            Files.deleteIfExists(copyPath);
+            undeletedCopies.remove(copyPath);
+        } catch (IOException e) {
+            undeletedCopies.add(copyPath);
+            // deleteOnExitと違い、何度開き直しても登録は1つだけ
+            if (isShutdownHookAdded.compareAndSet(false, true)) {
+                Runtime.getRuntime().addShutdownHook(new Thread(
+                        SongDatabaseConnector::deleteUndeletedCopies,
+                        "SongDatabaseConnector-cleanup"));
+            }
+        }
+    }
+
+    private static void deleteUndeletedCopies() {
+        for (final Path copyPath : undeletedCopies) {
+            try {
+                Files.deleteIfExists(copyPath);
+                undeletedCopies.remove(copyPath);
+            } catch (IOException e) {
+                // まだ開かれている。次の機会に削除する
+            }
+        }
+    }
+
+    /**
+     * 接続を開く
+     *
+     * @param databasePath データベースのファイルのパス
+     * @param readMode     接続の開き方
+     * @return 接続
+     * @throws SQLException           SQLに関する例外
+     * @throws ClassNotFoundException JDBC初期化失敗
+     */
+    static Connection open(Path databasePath, ReadMode readMode) throws SQLException,
+            ClassNotFoundException {
+        Class.forName("org.sqlite.JDBC");
+        final SQLiteConfig sqliteConfig = new SQLiteConfig();
+        sqliteConfig.setReadOnly(true);
+        sqliteConfig.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        if (readMode != ReadMode.NORMAL) {
+            sqliteConfig.setPragma(SQLiteConfig.Pragma.MMAP_SIZE,
+                    Long.toString(FAST_READ_MMAP_SIZE));
+            sqliteConfig.setCacheSize(FAST_READ_CACHE_SIZE);
+        }
+        final String url = readMode == ReadMode.FAST_IMMUTABLE ?
+                "jdbc:sqlite:" + databasePath.toUri() + "?immutable=1" :
+                "jdbc:sqlite:" + databasePath;
+        // query_onlyは一時テーブルへの書き込みも拒否するので使わない（読み取り専用で開けば書き込めない）
+        return DriverManager.getConnection(url, sqliteConfig.toProperties());
+    }
+
+    /**
+     * 開いた接続と、複製モードで作成した一時ファイル
+     *
+     * @param connection 接続
+     * @param copyPath   複製のパス（複製していなければnull）
+     */
+    record OpenedDatabase(Connection connection, Path copyPath) implements AutoCloseable {
+        /**
+         * 接続を閉じ、複製を削除する
+         *
+         * @throws SQLException 接続を閉じられない
+         */
+        @Override
+        public void close() throws SQLException {
+            try {
+                connection.close();
+            } finally {
+                if (copyPath != null) {
+                    deleteCopy(copyPath);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.getaji.bmshashwatcher.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 楽曲データベースへの1つの接続と、それに付随するキャッシュや索引
+ * 接続を開き直す時は新しいセッションを作成してSessionHolderで差し替える
+ * 接続を使う処理はこのインスタンスで同期するので、閉じる処理は実行中の検索が終わるまで待つ
+ */
+class SongDatabaseSession implements AutoCloseable {
+    private final SongDatabaseConnector.OpenedDatabase database;
+    private final StatementCache statementCache;
+    private final TempHashTable tempHashTable;
+    private final int maxRequestsPerQuery;
+    private final int tempTableThreshold;
+    private final SongSnapshotIndex snapshotIndex;
+    private volatile SongHashFilter hashFilter;
+    private boolean isClosed = false;
+
+    /**
+     * @param database            開いたデータベース
+     * @param statementCache      接続のPreparedStatementのキャッシュ
+     * @param maxRequestsPerQuery findAllに一度に渡すリクエストの最大数
+     * @param tempTableThreshold  一時テーブルを使うリクエストの最小数
+     * @param snapshotIndex       メモリ上の索引（使わなければnull）
+     */
+    SongDatabaseSession(SongDatabaseConnector.OpenedDatabase database,
+                        StatementCache statementCache, int maxRequestsPerQuery,
+                        int tempTableThreshold, SongSnapshotIndex snapshotIndex) {
+        this.database = database;
+        this.statementCache = statementCache;
+        this.tempHashTable = new TempHashTable(database.connection(), statementCache);
+        this.maxRequestsPerQuery = maxRequestsPerQuery;
+        this.tempTableThreshold = tempTableThreshold;
+        this.snapshotIndex = snapshotIndex;
+    }
+
+    Connection getConnection() {
+        return database.connection();
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    TempHashTable getTempHashTable() {
+        return tempHashTable;
+    }
+
+    int getMaxRequestsPerQuery() {
+        return snapshotIndex != null ? Integer.MAX_VALUE : maxRequestsPerQuery;
+    }
+
+    int getTempTableThreshold() {
+        return snapshotIndex != null ? Integer.MAX_VALUE : tempTableThreshold;
+    }
+
+    /**
+     * メモリ上の索引（不変なので同期せずに使える）
+     *
+     * @return 索引（使わなければnull）
+     */
+    SongSnapshotIndex getSnapshotIndex() {
+        return snapshotIndex;
+    }
+
+    /**
+     * ハッシュのフィルタ（不変なので同期せずに使える）
+     *
+     * @return フィルタ（使わないか作成中ならnull）
+     */
+    SongHashFilter getHashFilter() {
+        return hashFilter;
+    }
+
+    /**
+     * ハッシュのフィルタを別の接続とスレッドで作成し、完成したら使い始める
+     * 作成している間も検索はこのセッションの接続で行われ、失敗した場合はフィルタを使わない
+     *
+     * @param opener     フィルタを作成するための接続を開く処理
+     * @param query      ハッシュの列を選択するクエリ
+     * @param threadName スレッドの名前
+     */
+    void buildHashFilterInBackground(ConnectionOpener opener, String query, String threadName) {
+        final Thread thread = new Thread(() -> {
+            if (isClosed()) return;
+            try (final Connection connection = opener.open()) {
+                final SongHashFilter newHashFilter = SongHashFilter.load(connection, query);
+                if (!isClosed()) {
+                    hashFilter = newHashFilter;
+                }
+            } catch (SQLException | ClassNotFoundException | IllegalStateException e) {
+                // 作成中に閉じられた場合（複製が削除されたなど）も含む
+                if (!isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     * 実行中の検索が終わるのを待ってから接続を閉じる（複製していれば削除する）
+     *
+     * @throws SQLException SQLに関する例外
+     */
+    @Override
+    public synchronized void close() throws SQLException {
+        if (isClosed) return;
+        isClosed = true;
+        try {
+            statementCache.close();
+        } finally {
+            database.close();
+        }
+    }
+
+    @FunctionalInterface
+    interface ConnectionOpener {
+        Connection open() throws SQLException, ClassNotFoundException;
+    }
+}
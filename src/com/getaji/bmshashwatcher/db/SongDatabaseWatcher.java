@@ -0,0 +1,166 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.Config;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 楽曲データベースのファイルを監視し、更新されたらアクセサを開き直すクラス
+ * BMSプレイヤーの楽曲の更新では短い間に何度も書き込まれるので、最後の変更から一定時間が経ってから開き直す
+ * 開き直す処理は監視スレッドで行い、新しい接続の準備ができるまで検索は古い接続で続けられる
+ */
+public class SongDatabaseWatcher implements AutoCloseable {
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+
+    private final SongDataAccessor accessor;
+    private final Config config;
+    private final long debounceMillis;
+    private Consumer<SongDataAccessor> reloadConsumer;
+    private WatchService watchService;
+    private Thread thread;
+
+    public SongDatabaseWatcher(SongDataAccessor accessor, Config config) {
+        this(accessor, config, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * @param accessor       アクセサ
+     * @param config         設定データ（パスは開始時に取得する）
+     * @param debounceMillis 最後の変更から開き直すまでの時間（ミリ秒）
+     */
+    public SongDatabaseWatcher(SongDataAccessor accessor, Config config, long debounceMillis) {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("debounceMillis must be 0 or more");
+        }
+        this.accessor = accessor;
+        this.config = config;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * 開き直した後に呼び出す処理を設定する
+     * 監視スレッドから呼び出される
+     */
+    public void setReloadConsumer(Consumer<SongDataAccessor> reloadConsumer) {
+        this.reloadConsumer = reloadConsumer;
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * 設定のパスで監視を開始する
+     * 既に監視している場合は止めてから開始する
+     *
+     * @return 監視を開始したか（パスが正しくなければfalse）
+     * @throws IOException 監視の登録に失敗
+     */
+    public synchronized boolean start() throws IOException {
+        stop();
+        if (!accessor.isValidPath(config)) return false;
+
+        final Path databasePath = accessor.getDatabasePath(config).toAbsolutePath();
+        final WatchService newWatchService = databasePath.getFileSystem().newWatchService();
+        try {
+            databasePath.getParent().register(newWatchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            newWatchService.close();
+            throw e;
+        }
+        watchService = newWatchService;
+        thread = new Thread(() -> watch(newWatchService, databasePath.getFileName().toString()),
+                "SongDatabaseWatcher");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * 監視を停止する
+     */
+    public synchronized void stop() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        watchService = null;
+        thread = null;
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private void watch(WatchService watchService, String fileName) {
+        // 変更を検出してから開き直すまでの期限（変更がなければ0）
+        long deadline = 0;
+        try {
+            while (true) {
+                final WatchKey key;
+                if (deadline == 0) {
+                    key = watchService.take();
+                } else {
+                    final long remaining = deadline - System.nanoTime();
+                    key = remaining > 0 ? watchService.poll(remaining, TimeUnit.NANOSECONDS) :
+                            null;
+                }
+
+                if (key != null) {
+                    if (isDatabaseChanged(key, fileName)) {
+                        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+                    }
+                    key.reset();
+                } else if (deadline != 0) {
+                    deadline = 0;
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    /**
+     * データベースのファイルかジャーナルのファイルが変更されたか
+     */
+    private static boolean isDatabaseChanged(WatchKey key, String fileName) {
+        boolean isChanged = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                isChanged = true;
+                continue;
+            }
+            final String name = event.context().toString();
+            if (name.equals(fileName) || name.equals(fileName + "-wal")
+                    || name.equals(fileName + "-journal")) {
+                isChanged = true;
+            }
+        }
+        return isChanged;
+    }
+
+    private void reload() {
+        // 開かれていなければ次の検索で最新のデータベースが開かれる
+        if (!accessor.isOpen() || !accessor.isValidPath(config)) return;
+        try {
+            accessor.reopen(config);
+        } catch (SQLException | ClassNotFoundException | IllegalStateException e) {
+            // 開き直せなければ古い接続で検索を続ける
+            e.printStackTrace();
+            return;
+        }
+        if (reloadConsumer != null) {
+            reloadConsumer.accept(accessor);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.HashKey;
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 楽曲データベースに含まれるMD5とSHA-256の集合を表す確率的なフィルタ（8ビットのBinary Fuse Filter）
+ * 含まれないハッシュの大半（約255/256）をSQLを使わずに除外できる。含まれるハッシュを除外することはない
+ * 1キーあたり約9ビットで、作成した後は不変なので同期せずに使える（統計のみ更新する）
+ */
+public final class SongHashFilter {
+    // 生成に失敗した場合に種を変えて作り直す最大回数
+    private static final int MAX_BUILD_ATTEMPTS = 100;
+    private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+
+    private final long seed;
+    private final int segmentLength;
+    private final int segmentLengthMask;
+    private final int segmentCountLength;
+    private final byte[] fingerprints;
+    private final int keyCount;
+    private final long buildMillis;
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong falsePositiveCount = new AtomicLong();
+
+    private SongHashFilter(long seed, int segmentLength, int segmentCountLength,
+                           byte[] fingerprints, int keyCount, long buildMillis) {
+        this.seed = seed;
+        this.segmentLength = segmentLength;
+        this.segmentLengthMask = segmentLength - 1;
+        this.segmentCountLength = segmentCountLength;
+        this.fingerprints = fingerprints;
+        this.keyCount = keyCount;
+        this.buildMillis = buildMillis;
+    }
+
+    /**
+     * クエリの結果の全ての列から、MD5またはSHA-256として読める値を集めてフィルタを作成する
+     *
+     * @param connection 接続
+     * @param query      ハッシュの列を選択するクエリ
+     * @return フィルタ
+     * @throws SQLException SQLに関する例外
+     */
+    static SongHashFilter load(Connection connection, String query) throws SQLException {
+        final long startTime = System.nanoTime();
+        long[] keyHashes = new long[1024];
+        int size = 0;
+        try (final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery(query)) {
+            final int columnCount = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                for (int column = 1; column <= columnCount; column++) {
+                    final HashKey hash = parseOrNull(resultSet.getString(column));
+                    if (hash == null) continue;
+                    if (size == keyHashes.length) {
+                        keyHashes = Arrays.copyOf(keyHashes, size * 2);
+                    }
+                    keyHashes[size++] = keyHash(hash);
+                }
+            }
+        }
+        return build(Arrays.copyOf(keyHashes, size), startTime);
+    }
+
+    private static HashKey parseOrNull(String s) {
+        if (s == null) return null;
+        return switch (s.length()) {
+            case Md5Key.HEX_LENGTH -> Md5Key.parseOrNull(s);
+            case Sha256Key.HEX_LENGTH -> Sha256Key.parseOrNull(s);
+            default -> null;
+        };
+    }
+
+    /**
+     * ハッシュの集合からフィルタを作成する
+     *
+     * @param hashes ハッシュ（重複してもよい）
+     * @return フィルタ
+     */
+    public static SongHashFilter of(List<? extends HashKey> hashes) {
+        final long startTime = System.nanoTime();
+        final long[] keyHashes = new long[hashes.size()];
+        for (int i = 0; i < keyHashes.length; i++) {
+            keyHashes[i] = keyHash(hashes.get(i));
+        }
+        return build(keyHashes, startTime);
+    }
+
+    private static SongHashFilter build(long[] keyHashes, long startTime) {
+        // 同じキーが複数あると取り除く順序が決まらないので、重複を除く
+        Arrays.sort(keyHashes);
+        int size = 0;
+        for (int i = 0; i < keyHashes.length; i++) {
+            if (i == 0 || keyHashes[i] != keyHashes[i - 1]) {
+                keyHashes[size++] = keyHashes[i];
+            }
+        }
+
+        // 配列の大きさはGraf & Lemire "Binary Fuse Filters"（2022）の3-wiseの式で決める
+        final int sizeForLayout = Math.max(size, 2);
+        final int segmentLength = Math.min(MAX_SEGMENT_LENGTH,
+                1 << (int) Math.floor(Math.log(sizeForLayout) / Math.log(3.33) + 2.25));
+        final double sizeFactor = Math.max(1.125,
+                0.875 + 0.25 * Math.log(1_000_000) / Math.log(sizeForLayout));
+        final int capacity = (int) Math.round(sizeForLayout * sizeFactor);
+        final int initSegmentCount = (capacity + segmentLength - 1) / segmentLength - 2;
+        final int segmentCount = Math.max(1, initSegmentCount);
+        final int arrayLength = (segmentCount + 2) * segmentLength;
+        final int segmentCountLength = segmentCount * segmentLength;
+
+        final byte[] counts = new byte[arrayLength];
+        final long[] xorHashes = new long[arrayLength];
+        final int[] queue = new int[arrayLength];
+        final long[] stackHashes = new long[size];
+        final int[] stackSlots = new int[size];
+        long seed = 0x9e3779b97f4a7c15L;
+        for (int attempt = 0; attempt < MAX_BUILD_ATTEMPTS; attempt++) {
+            seed = mix64(seed + attempt);
+            final SongHashFilter filter = new SongHashFilter(seed, segmentLength,
+                    segmentCountLength, new byte[arrayLength], size, 0);
+            Arrays.fill(counts, (byte) 0);
+            Arrays.fill(xorHashes, 0);
+            // 各スロットに入るキーの数と、キーのハッシュのXORを数える
+            for (int i = 0; i < size; i++) {
+                final long hash = filter.seededHash(keyHashes[i]);
+                for (int index = 0; index < 3; index++) {
+                    final int slot = filter.slot(hash, index);
+                    counts[slot]++;
+                    xorHashes[slot] ^= hash;
+                }
+            }
+            // キーが1つだけのスロットから順に取り除く
+            int queueSize = 0;
+            for (int slot = 0; slot < arrayLength; slot++) {
+                if (counts[slot] == 1) queue[queueSize++] = slot;
+            }
+            int stackSize = 0;
+            while (queueSize > 0) {
+                final int slot = queue[--queueSize];
+                if (counts[slot] != 1) continue;
+                final long hash = xorHashes[slot];
+                stackHashes[stackSize] = hash;
+                stackSlots[stackSize] = slot;
+                stackSize++;
+                for (int index = 0; index < 3; index++) {
+                    final int other = filter.slot(hash, index);
+                    counts[other]--;
+                    xorHashes[other] ^= hash;
+                    if (counts[other] == 1) queue[queueSize++] = other;
+                }
+            }
+            if (stackSize != size) continue;
+
+            // 取り除いた逆順に、3つのスロットのXORが指紋になるよう値を決める
+            final byte[] fingerprints = filter.fingerprints;
+            for (int i = stackSize - 1; i >= 0; i--) {
+                final long hash = stackHashes[i];
+                final int slot = stackSlots[i];
+                byte value = fingerprint(hash);
+                for (int index = 0; index < 3; index++) {
+                    final int other = filter.slot(hash, index);
+                    if (other != slot) value ^= fingerprints[other];
+                }
+                fingerprints[slot] = value;
+            }
+            return new SongHashFilter(seed, segmentLength, segmentCountLength, fingerprints, size,
+                    (System.nanoTime() - startTime) / 1_000_000);
+        }
+        throw new IllegalStateException("ハッシュのフィルタを作成できません");
+    }
+
+    /**
+     * ハッシュがデータベースに含まれる可能性があるか
+     *
+     * @param hash ハッシュ
+     * @return 含まれる可能性があればtrue（falseなら確実に含まれない）
+     */
+    public boolean mayContain(HashKey hash) {
+        lookupCount.incrementAndGet();
+        if (!contains(hash)) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean contains(HashKey hash) {
+        if (keyCount == 0) return false;
+        final long seededHash = seededHash(keyHash(hash));
+        final byte value = (byte) (fingerprint(seededHash) ^ fingerprints[slot(seededHash, 0)]
+                ^ fingerprints[slot(seededHash, 1)] ^ fingerprints[slot(seededHash, 2)]);
+        return value == 0;
+    }
+
+    /**
+     * 含まれる可能性のあるリクエストだけを検索し、リクエストと同じ順の結果を返す
+     * 除外したリクエストの楽曲データはnullになる
+     *
+     * @param requests リクエスト
+     * @param finder   含まれる可能性のあるリクエストを検索する処理
+     * @return リクエストと同じ件数の結果
+     * @throws SQLException SQLに関する例外
+     */
+    List<SongDataAccessor.Result> findAll(List<SongDataAccessor.Request> requests,
+                                          Finder finder) throws SQLException {
+        final List<SongDataAccessor.Request> candidates = new ArrayList<>(requests.size());
+        for (final SongDataAccessor.Request request : requests) {
+            if (mayContain(request.hash())) {
+                candidates.add(request);
+            }
+        }
+        final List<SongDataAccessor.Result> foundResults = candidates.isEmpty() ?
+                Collections.emptyList() : finder.findAll(candidates);
+        for (final SongDataAccessor.Result result : foundResults) {
+            if (result.songData() == null) {
+                falsePositiveCount.incrementAndGet();
+            }
+        }
+        if (candidates.size() == requests.size()) return foundResults;
+
+        final List<SongDataAccessor.Result> results = new ArrayList<>(requests.size());
+        int foundIndex = 0;
+        for (final SongDataAccessor.Request request : requests) {
+            if (foundIndex < candidates.size() && candidates.get(foundIndex) == request) {
+                results.add(foundResults.get(foundIndex++));
+            } else {
+                results.add(new SongDataAccessor.Result(request.hash(), null));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 含まれる可能性があれば検索し、なければ楽曲データがnullの結果を返す
+     *
+     * @param hash   ハッシュ
+     * @param finder ハッシュを検索する処理
+     * @return 結果
+     * @throws SQLException SQLに関する例外
+     */
+    SongDataAccessor.Result find(HashKey hash, SingleFinder finder) throws SQLException {
+        if (!mayContain(hash)) {
+            return new SongDataAccessor.Result(hash, null);
+        }
+        final SongDataAccessor.Result result = finder.find();
+        if (result.songData() == null) {
+            falsePositiveCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    private long seededHash(long keyHash) {
+        return mix64(keyHash + seed);
+    }
+
+    /**
+     * 3つのスロットのうちindex番目を返す（それぞれ隣り合うセグメントに入る）
+     */
+    private int slot(long hash, int index) {
+        final long segmentStart = Math.multiplyHigh(hash, segmentCountLength)
+                + ((hash >> 63) & segmentCountLength);
+        final int slot = (int) segmentStart + index * segmentLength;
+        return switch (index) {
+            case 0 -> slot;
+            case 1 -> slot ^ ((int) (hash >>> 18) & segmentLengthMask);
+            default -> slot ^ ((int) hash & segmentLengthMask);
+        };
+    }
+
+    private static byte fingerprint(long hash) {
+        return (byte) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * ハッシュの全てのビットを64ビットにまとめる（MD5とSHA-256は区別しない）
+     */
+    private static long keyHash(HashKey hash) {
+        if (hash instanceof Md5Key md5) {
+            return mix64(md5.getHigh()) ^ md5.getLow();
+        }
+        final Sha256Key sha256 = (Sha256Key) hash;
+        long h = sha256.getWord(0);
+        for (int i = 1; i < 4; i++) {
+            h = mix64(h) ^ sha256.getWord(i);
+        }
+        return h;
+    }
+
+    /**
+     * MurmurHash3のfmix64
+     */
+    private static long mix64(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * 指紋の配列のバイト数
+     */
+    public long getMemoryBytes() {
+        return fingerprints.length;
+    }
+
+    /**
+     * 現在の統計を返す
+     */
+    public Stats getStats() {
+        return new Stats(keyCount, getMemoryBytes(), buildMillis, lookupCount.get(),
+                rejectedCount.get(), falsePositiveCount.get());
+    }
+
+    /**
+     * 統計
+     *
+     * @param keyCount           含まれるハッシュの数
+     * @param memoryBytes        指紋の配列のバイト数
+     * @param buildMillis        読み込みと作成にかかった時間（ミリ秒）
+     * @param lookupCount        問い合わせた回数
+     * @param rejectedCount      含まれないと判定した回数（省いた検索の数）
+     * @param falsePositiveCount 通過したが見つからなかった回数
+     */
+    public record Stats(int keyCount, long memoryBytes, long buildMillis, long lookupCount,
+                        long rejectedCount, long falsePositiveCount) {
+        /**
+         * 1キーあたりのビット数
+         */
+        public double bitsPerKey() {
+            return keyCount == 0 ? 0 : memoryBytes * 8.0 / keyCount;
+        }
+
+        /**
+         * 含まれないハッシュのうち通過した割合（含まれないハッシュを問い合わせていなければ0）
+         */
+        public double falsePositiveRate() {
+            final long negativeCount = rejectedCount + falsePositiveCount;
+            return negativeCount == 0 ? 0 : (double) falsePositiveCount / negativeCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "keys=%d memory=%dB (%.2f bits/key) build=%dms lookups=%d rejected=%d " +
+                            "falsePositives=%d (%.3f%%)",
+                    keyCount, memoryBytes, bitsPerKey(), buildMillis, lookupCount,
+                    rejectedCount, falsePositiveCount, falsePositiveRate() * 100);
+        }
+    }
+
+    @FunctionalInterface
+    interface Finder {
+        List<SongDataAccessor.Result> findAll(List<SongDataAccessor.Request> requests)
+                throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface SingleFinder {
+        SongDataAccessor.Result find() throws SQLException;
+    }
+}
@@ -0,0 +1,280 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
+import com.getaji.bmshashwatcher.model.SongData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 楽曲データのテーブル全体をメモリ上に保持する索引（不変）
+ * ハッシュはlongの配列に、タイトルとサブタイトルは共有のcharの配列に詰めて保持し、
+ * オープンアドレス法のハッシュ表で検索する。1件あたりのオブジェクトは作らない
+ * 同じハッシュの行が複数ある場合は最初に追加した行を返す
+ */
+public final class SongSnapshotIndex {
+    private static final int EMPTY = -1;
+    private static final byte HAS_MD5 = 1;
+    private static final byte HAS_SHA256 = 2;
+
+    private final int size;
+    private final byte[] flags;
+    private final long[] md5Words;
+    private final long[] sha256Words;
+    private final char[] textArena;
+    private final int[] textOffsets;
+    private final int[] titleLengths;
+    private final int[] subtitleLengths;
+    private final int[] md5Table;
+    private final int[] sha256Table;
+
+    private SongSnapshotIndex(Builder builder) {
+        size = builder.size;
+        flags = Arrays.copyOf(builder.flags, size);
+        // LR2のようにSHA-256を持たないテーブルでは配列を確保しない
+        md5Words = Arrays.copyOf(builder.md5Words, builder.hasMD5 ? size * 2 : 0);
+        sha256Words = Arrays.copyOf(builder.sha256Words, builder.hasSHA256 ? size * 4 : 0);
+        textArena = Arrays.copyOf(builder.textArena, builder.textLength);
+        textOffsets = Arrays.copyOf(builder.textOffsets, size);
+        titleLengths = Arrays.copyOf(builder.titleLengths, size);
+        subtitleLengths = Arrays.copyOf(builder.subtitleLengths, size);
+
+        // 負荷率が0.5以下になる2の累乗の大きさにする
+        final int capacity = Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+        md5Table = new int[capacity];
+        sha256Table = new int[capacity];
+        Arrays.fill(md5Table, EMPTY);
+        Arrays.fill(sha256Table, EMPTY);
+        for (int i = 0; i < size; i++) {
+            if ((flags[i] & HAS_MD5) != 0) {
+                final long high = md5Words[i * 2];
+                final long low = md5Words[i * 2 + 1];
+                int slot = mix(high ^ low) & (capacity - 1);
+                boolean isDuplicate = false;
+                while (md5Table[slot] != EMPTY) {
+                    final int entry = md5Table[slot];
+                    if (md5Words[entry * 2] == high && md5Words[entry * 2 + 1] == low) {
+                        isDuplicate = true;
+                        break;
+                    }
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                if (!isDuplicate) md5Table[slot] = i;
+            }
+            if ((flags[i] & HAS_SHA256) != 0) {
+                int slot = mix(sha256Words[i * 4] ^ sha256Words[i * 4 + 3]) & (capacity - 1);
+                boolean isDuplicate = false;
+                while (sha256Table[slot] != EMPTY) {
+                    if (isSameSha256(sha256Table[slot], i)) {
+                        isDuplicate = true;
+                        break;
+                    }
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                if (!isDuplicate) sha256Table[slot] = i;
+            }
+        }
+    }
+
+    /**
+     * 件数（重複を含む行数）
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 保持している配列のおおよそのバイト数
+     */
+    public long estimateMemoryBytes() {
+        return (long) flags.length
+                + (long) (md5Words.length + sha256Words.length) * Long.BYTES
+                + (long) textArena.length * Character.BYTES
+                + (long) (textOffsets.length + titleLengths.length + subtitleLengths.length
+                + md5Table.length + sha256Table.length) * Integer.BYTES;
+    }
+
+    /**
+     * MD5ハッシュで楽曲データを検索する
+     *
+     * @param hash MD5ハッシュ
+     * @return 楽曲データ（存在しなければnull）
+     */
+    public SongData findByMD5(Md5Key hash) {
+        final long high = hash.getHigh();
+        final long low = hash.getLow();
+        final int mask = md5Table.length - 1;
+        int slot = mix(high ^ low) & mask;
+        int entry;
+        while ((entry = md5Table[slot]) != EMPTY) {
+            if (md5Words[entry * 2] == high && md5Words[entry * 2 + 1] == low) {
+                return toSongData(entry);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * SHA-256ハッシュで楽曲データを検索する
+     *
+     * @param hash SHA-256ハッシュ
+     * @return 楽曲データ（存在しなければnull）
+     */
+    public SongData findBySHA256(Sha256Key hash) {
+        final long word0 = hash.getWord(0);
+        final long word1 = hash.getWord(1);
+        final long word2 = hash.getWord(2);
+        final long word3 = hash.getWord(3);
+        final int mask = sha256Table.length - 1;
+        int slot = mix(word0 ^ word3) & mask;
+        int entry;
+        while ((entry = sha256Table[slot]) != EMPTY) {
+            final int base = entry * 4;
+            if (sha256Words[base] == word0 && sha256Words[base + 1] == word1
+                    && sha256Words[base + 2] == word2 && sha256Words[base + 3] == word3) {
+                return toSongData(entry);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * 複数のハッシュで楽曲データを検索する
+     *
+     * @param requests リクエスト
+     * @return リクエストと同じ順の結果
+     */
+    public List<SongDataAccessor.Result> findAll(List<SongDataAccessor.Request> requests) {
+        final List<SongDataAccessor.Result> results = new ArrayList<>(requests.size());
+        for (final SongDataAccessor.Request request : requests) {
+            final SongData songData;
+            if (request.hash() instanceof Md5Key md5) {
+                songData = findByMD5(md5);
+            } else if (request.hash() instanceof Sha256Key sha256) {
+                songData = findBySHA256(sha256);
+            } else {
+                songData = null;
+            }
+            results.add(new SongDataAccessor.Result(request.hash(), songData));
+        }
+        return results;
+    }
+
+    private boolean isSameSha256(int a, int b) {
+        return sha256Words[a * 4] == sha256Words[b * 4]
+                && sha256Words[a * 4 + 1] == sha256Words[b * 4 + 1]
+                && sha256Words[a * 4 + 2] == sha256Words[b * 4 + 2]
+                && sha256Words[a * 4 + 3] == sha256Words[b * 4 + 3];
+    }
+
+    private SongData toSongData(int entry) {
+        final Md5Key md5 = (flags[entry] & HAS_MD5) != 0 ?
+                new Md5Key(md5Words[entry * 2], md5Words[entry * 2 + 1]) : null;
+        final Sha256Key sha256 = (flags[entry] & HAS_SHA256) != 0 ?
+                new Sha256Key(sha256Words[entry * 4], sha256Words[entry * 4 + 1],
+                        sha256Words[entry * 4 + 2], sha256Words[entry * 4 + 3]) : null;
+        final int offset = textOffsets[entry];
+        final int titleLength = titleLengths[entry];
+        final String title = titleLength < 0 ? null : new String(textArena, offset, titleLength);
+        final int subtitleOffset = offset + Math.max(0, titleLength);
+        final int subtitleLength = subtitleLengths[entry];
+        final String subtitle = subtitleLength < 0 ? null :
+                new String(textArena, subtitleOffset, subtitleLength);
+        return new SongData(md5, sha256, title, subtitle);
+    }
+
+    /**
+     * ハッシュの上位と下位のビットを混ぜる（MurmurHash3のfmix64）
+     */
+    static int mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * 行を順に追加してSongSnapshotIndexを作成するクラス
+     */
+    public static class Builder {
+        private int size = 0;
+        private byte[] flags = new byte[1024];
+        private long[] md5Words = new long[1024 * 2];
+        private long[] sha256Words = new long[1024 * 4];
+        private int[] textOffsets = new int[1024];
+        private int[] titleLengths = new int[1024];
+        private int[] subtitleLengths = new int[1024];
+        private char[] textArena = new char[1024 * 32];
+        private int textLength = 0;
+        private boolean hasMD5 = false;
+        private boolean hasSHA256 = false;
+
+        /**
+         * 行を追加する
+         *
+         * @param md5      MD5ハッシュ（なければnull）
+         * @param sha256   SHA-256ハッシュ（なければnull）
+         * @param title    タイトル
+         * @param subtitle サブタイトル
+         * @return このインスタンス
+         */
+        public Builder add(Md5Key md5, Sha256Key sha256, String title, String subtitle) {
+            if (size == flags.length) {
+                final int capacity = size * 2;
+                flags = Arrays.copyOf(flags, capacity);
+                md5Words = Arrays.copyOf(md5Words, capacity * 2);
+                sha256Words = Arrays.copyOf(sha256Words, capacity * 4);
+                textOffsets = Arrays.copyOf(textOffsets, capacity);
+                titleLengths = Arrays.copyOf(titleLengths, capacity);
+                subtitleLengths = Arrays.copyOf(subtitleLengths, capacity);
+            }
+            byte flag = 0;
+            if (md5 != null) {
+                flag |= HAS_MD5;
+                hasMD5 = true;
+                md5Words[size * 2] = md5.getHigh();
+                md5Words[size * 2 + 1] = md5.getLow();
+            }
+            if (sha256 != null) {
+                flag |= HAS_SHA256;
+                hasSHA256 = true;
+                for (int i = 0; i < 4; i++) {
+                    sha256Words[size * 4 + i] = sha256.getWord(i);
+                }
+            }
+            flags[size] = flag;
+            textOffsets[size] = textLength;
+            titleLengths[size] = appendText(title);
+            subtitleLengths[size] = appendText(subtitle);
+            size++;
+            return this;
+        }
+
+        /**
+         * 文字列を共有の配列に追加する
+         *
+         * @return 文字数（nullなら-1）
+         */
+        private int appendText(String text) {
+            if (text == null) return -1;
+            if (textLength + text.length() > textArena.length) {
+                textArena = Arrays.copyOf(textArena,
+                        Math.max(textArena.length * 2, textLength + text.length()));
+            }
+            text.getChars(0, text.length(), textArena, textLength);
+            textLength += text.length();
+            return text.length();
+        }
+
+        public SongSnapshotIndex build() {
+            return new SongSnapshotIndex(this);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.*;
+
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * songテーブルを検索するアクセサに共通する処理
+ * 現在のセッションを保持し、メモリ上の索引→ハッシュのフィルタ→SQLの順に検索する
+ * SQLはハッシュの列と行の条件から作成するので、アクセサごとの違いは列の構成だけになる
+ */
+final class SongTableLookup {
+    private final SessionHolder session = new SessionHolder();
+    private final String md5Column;
+    private final String sha256Column;
+    private final String rowCondition;
+    private final String filterThreadName;
+    private final String selectColumns;
+    private final String queryByMD5;
+    private final String queryBySHA256;
+    private final String tempTableQuery;
+
+    /**
+     * @param md5Column        MD5の列名
+     * @param sha256Column     SHA-256の列名（なければnull）
+     * @param rowCondition     検索する行の条件（なければnull）
+     * @param filterThreadName ハッシュのフィルタを作成するスレッドの名前
+     */
+    SongTableLookup(String md5Column, String sha256Column, String rowCondition,
+                    String filterThreadName) {
+        this.md5Column = md5Column;
+        this.sha256Column = sha256Column;
+        this.rowCondition = rowCondition;
+        this.filterThreadName = filterThreadName;
+        selectColumns = hashColumns() + ", title, subtitle";
+        queryByMD5 = singleQuery(md5Column);
+        queryBySHA256 = sha256Column != null ? singleQuery(sha256Column) : null;
+        tempTableQuery = "SELECT DISTINCT " + selectColumns + " FROM song\n" +
+                whereClause(inList(md5Column, TempHashTable.TABLE_NAME) +
+                        (sha256Column != null ?
+                                " OR " + inList(sha256Column, TempHashTable.TABLE_NAME) : ""));
+    }
+
+    boolean isOpen() {
+        return session.isOpen();
+    }
+
+    long getGeneration() {
+        return session.getGeneration();
+    }
+
+    int getMaxRequestsPerQuery() {
+        return session.require().getMaxRequestsPerQuery();
+    }
+
+    int getTempTableThreshold() {
+        return session.require().getTempTableThreshold();
+    }
+
+    SongHashFilter getHashFilter() {
+        return session.isOpen() ? session.require().getHashFilter() : null;
+    }
+
+    SongSnapshotIndex getSnapshotIndex() {
+        return session.isOpen() ? session.require().getSnapshotIndex() : null;
+    }
+
+    /**
+     * 新しい接続を開いて索引を作成してから差し替える
+     * 作成している間も、検索はそれまでの接続で行われる
+     *
+     * @param databasePath データベースのファイルのパス
+     * @param config       設定データ
+     * @throws SQLException           SQLに関する例外
+     * @throws ClassNotFoundException JDBC初期化失敗などの例外
+     * @throws IllegalStateException  不正な状態に関する例外
+     */
+    void replace(Path databasePath, Config config) throws SQLException, ClassNotFoundException,
+            IllegalStateException {
+        session.replace(openSession(databasePath, config));
+    }
+
+    void close() throws SQLException {
+        session.replace(null);
+    }
+
+    private SongDatabaseSession openSession(Path databasePath, Config config)
+            throws SQLException, ClassNotFoundException, IllegalStateException {
+        final SongDatabaseConnector.OpenedDatabase database =
+                SongDatabaseConnector.open(databasePath, config);
+        final Connection connection = database.connection();
+        try {
+            // 索引がなければIN句のチャンクごとに全行を走査することになるので、一時テーブルを使う
+            final boolean isIndexed = TempHashTable.isIndexedColumn(connection, "song", md5Column) &&
+                    (sha256Column == null ||
+                            TempHashTable.isIndexedColumn(connection, "song", sha256Column));
+            final SongDatabaseSession newSession = new SongDatabaseSession(
+                    database,
+                    new StatementCache(connection),
+                    InListBucket.maxRequestCount(InListBucket.getMaxVariableNumber(connection),
+                            sha256Column != null ? 2 : 1),
+                    isIndexed ? Integer.MAX_VALUE : TempHashTable.UNINDEXED_THRESHOLD,
+                    config.isUseSongDataSnapshot() ? loadSnapshotIndex(connection) : null
+            );
+            if (config.isUseSongHashFilter() && newSession.getSnapshotIndex() == null) {
+                newSession.buildHashFilterInBackground(
+                        () -> SongDatabaseConnector.openAnother(databasePath, database, config),
+                        "SELECT " + hashColumns() + " FROM song" + rowFilter(),
+                        filterThreadName);
+            }
+            return newSession;
+        } catch (SQLException e) {
+            database.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 1つのハッシュで検索する
+     *
+     * @param hash ハッシュ
+     * @return 結果
+     * @throws SQLException SQLに関する例外
+     */
+    SongDataAccessor.Result find(HashKey hash) throws SQLException {
+        final SongDatabaseSession current = session.require();
+        final SongSnapshotIndex snapshotIndex = current.getSnapshotIndex();
+        if (snapshotIndex != null) {
+            return new SongDataAccessor.Result(hash, hash instanceof Md5Key md5 ?
+                    snapshotIndex.findByMD5(md5) : snapshotIndex.findBySHA256((Sha256Key) hash));
+        }
+        final SongHashFilter hashFilter = current.getHashFilter();
+        if (hashFilter != null) {
+            return hashFilter.find(hash, () -> query(hash));
+        }
+        return query(hash);
+    }
+
+    private SongDataAccessor.Result query(HashKey hash) throws SQLException {
+        final String sql = hash instanceof Md5Key ? queryByMD5 : queryBySHA256;
+        return session.query(current -> {
+            final PreparedStatement statement = current.getStatementCache().prepare(sql);
+            statement.setString(1, hash.toHex());
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                return new SongDataAccessor.Result(hash,
+                        resultSet.next() ? readSongData(resultSet) : null);
+            }
+        });
+    }
+
+    /**
+     * 複数のハッシュをIN句で検索する
+     *
+     * @param requests リクエスト
+     * @return リクエストと同じ順の結果
+     * @throws SQLException SQLに関する例外
+     */
+    List<SongDataAccessor.Result> findAll(List<SongDataAccessor.Request> requests)
+            throws SQLException {
+        final SongDatabaseSession current = session.require();
+        final SongSnapshotIndex snapshotIndex = current.getSnapshotIndex();
+        if (snapshotIndex != null) {
+            return snapshotIndex.findAll(requests);
+        }
+        final SongHashFilter hashFilter = current.getHashFilter();
+        if (hashFilter != null) {
+            return hashFilter.findAll(requests, candidates ->
+                    session.query(queried -> findAllWithInList(queried, candidates)));
+        }
+        return session.query(queried -> findAllWithInList(queried, requests));
+    }
+
+    private List<SongDataAccessor.Result> findAllWithInList(SongDatabaseSession current,
+                                                            List<SongDataAccessor.Request> requests)
+            throws SQLException {
+        final List<HashKey> md5HashList = new ArrayList<>();
+        final List<HashKey> sha256HashList = new ArrayList<>();
+        for (final SongDataAccessor.Request request : requests) {
+            if (request.hash() instanceof Md5Key) {
+                md5HashList.add(request.hash());
+            } else if (sha256Column != null) {
+                sha256HashList.add(request.hash());
+            }
+        }
+        // プレースホルダの数を揃えて、同じ大きさの検索ではPreparedStatementを使い回す
+        final int md5BucketSize = InListBucket.bucketSize(md5HashList.size());
+        final int sha256BucketSize = InListBucket.bucketSize(sha256HashList.size());
+        final String query = "SELECT DISTINCT " + selectColumns + " FROM song\n" +
+                whereClause(inList(md5Column, "(" + InListBucket.placeholders(md5BucketSize) + ")") +
+                        (sha256Column != null ? " OR " + inList(sha256Column,
+                                "(" + InListBucket.placeholders(sha256BucketSize) + ")") : ""));
+        final boolean isCacheable = InListBucket.isBucketed(md5BucketSize)
+                && (sha256Column == null || InListBucket.isBucketed(sha256BucketSize));
+        final PreparedStatement statement = isCacheable ?
+                current.getStatementCache().prepare(query) :
+                current.getConnection().prepareStatement(query);
+        try {
+            final int sha256StartIndex = InListBucket.bind(statement, 1, md5HashList, md5BucketSize);
+            if (sha256Column != null) {
+                InListBucket.bind(statement, sha256StartIndex, sha256HashList, sha256BucketSize);
+            }
+            final RequestIndex index = new RequestIndex(requests);
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    index.add(readSongData(resultSet));
+                }
+            }
+            return index.toResults();
+        } finally {
+            if (!isCacheable) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * 複数のハッシュを一時テーブルとの結合で検索する
+     *
+     * @param requests リクエスト
+     * @return リクエストと同じ順の結果
+     * @throws SQLException SQLに関する例外
+     */
+    List<SongDataAccessor.Result> findAllWithTempTable(List<SongDataAccessor.Request> requests)
+            throws SQLException {
+        final SongDatabaseSession current = session.require();
+        final SongSnapshotIndex snapshotIndex = current.getSnapshotIndex();
+        if (snapshotIndex != null) {
+            return snapshotIndex.findAll(requests);
+        }
+        final SongHashFilter hashFilter = current.getHashFilter();
+        if (hashFilter != null) {
+            return hashFilter.findAll(requests, this::findAllWithTempTableQuery);
+        }
+        return findAllWithTempTableQuery(requests);
+    }
+
+    private List<SongDataAccessor.Result> findAllWithTempTableQuery(
+            List<SongDataAccessor.Request> requests) throws SQLException {
+        return session.query(current ->
+                current.getTempHashTable().lookup(requests, tempTableQuery, this::readSongData));
+    }
+
+    private SongSnapshotIndex loadSnapshotIndex(Connection connection) throws SQLException {
+        final SongSnapshotIndex.Builder builder = new SongSnapshotIndex.Builder();
+        try (final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery(
+                     "SELECT " + selectColumns + " FROM song" + rowFilter())) {
+            while (resultSet.next()) {
+                final SongData songData = readSongData(resultSet);
+                builder.add(songData.md5(), songData.sha256(), songData.title(),
+                        songData.subtitle());
+            }
+        }
+        return builder.build();
+    }
+
+    private SongData readSongData(ResultSet resultSet) throws SQLException {
+        return new SongData(
+                Md5Key.parseOrNull(resultSet.getString(md5Column)),
+                sha256Column != null ? Sha256Key.parseOrNull(resultSet.getString(sha256Column)) : null,
+                resultSet.getString("title"),
+                resultSet.getString("subtitle")
+        );
+    }
+
+    private String hashColumns() {
+        return sha256Column != null ? md5Column + ", " + sha256Column : md5Column;
+    }
+
+    private String singleQuery(String column) {
+        return "SELECT " + selectColumns + " FROM song\n" +
+                "WHERE " + column + " = ?" + (rowCondition != null ? " AND " + rowCondition : "") +
+                "\nLIMIT 1\n";
+    }
+
+    private String whereClause(String hashCondition) {
+        return rowCondition != null ? "WHERE " + rowCondition + "\nAND (" + hashCondition + ")\n" :
+                "WHERE " + hashCondition + "\n";
+    }
+
+    private String rowFilter() {
+        return rowCondition != null ? " WHERE " + rowCondition : "";
+    }
+
+    private static String inList(String column, String values) {
+        return column + " IN " + values;
+    }
+}
@@ -0,0 +1,71 @@
+package com.getaji.bmshashwatcher.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 1つの接続のPreparedStatementをSQLごとに使い回すキャッシュ
+ * SQLiteが同じSQLを検索のたびに解析し直さないようにする
+ * 取得したPreparedStatementは閉じずに、接続を閉じる前にこのキャッシュを閉じる
+ * スレッドセーフではない
+ */
+class StatementCache implements AutoCloseable {
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * SQLに対応するPreparedStatementを返す
+     * キャッシュにあればパラメータを消去して返し、なければ作成してキャッシュする
+     *
+     * @param sql SQL
+     * @return PreparedStatement（閉じてはならない）
+     * @throws SQLException SQLに関する例外
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * キャッシュしている数
+     */
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * キャッシュしている全てのPreparedStatementを閉じる
+     *
+     * @throws SQLException 閉じるのに失敗（残りは閉じてから送出する）
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException exception = null;
+        for (final PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        statements.clear();
+        if (exception != null) throw exception;
+    }
+}
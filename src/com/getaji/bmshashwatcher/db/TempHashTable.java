@@ -0,0 +1,124 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.SongData;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * リクエストのハッシュを入れる接続ごとの一時テーブル（temp.lookup_hash）
+ * 大量のハッシュをIN句に展開せず、一時テーブルとの結合で検索するために使う
+ * 一時テーブルは読み取り専用で開いた接続でも作成できる
+ * ハッシュは1つのトランザクションの中で入れ、検索後にロールバックして消す
+ * 検索する列に索引がない場合、IN句ではチャンクごとに全行を走査するが、一時テーブルなら1回の走査で済む
+ */
+class TempHashTable {
+    /**
+     * 結合に使うテーブル名
+     */
+    static final String TABLE_NAME = "temp.lookup_hash";
+
+    /**
+     * 検索する列に索引がない場合に、一時テーブルを使うリクエストの最小数
+     * 生成した10万行のデータベースで、これ以上ではIN句のチャンクより速かった
+     */
+    static final int UNINDEXED_THRESHOLD = 1024;
+
+    private final Connection connection;
+    private final StatementCache statementCache;
+    private boolean isCreated = false;
+
+    TempHashTable(Connection connection, StatementCache statementCache) {
+        this.connection = connection;
+        this.statementCache = statementCache;
+    }
+
+    /**
+     * リクエストのハッシュを一時テーブルに入れ、結合するSQLで検索する
+     *
+     * @param requests  リクエスト
+     * @param joinQuery TABLE_NAMEのhash列と結合するSQL（パラメータなし）
+     * @param reader    行を楽曲データに変換する関数
+     * @return リクエストと同じ順の結果
+     * @throws SQLException SQLに関する例外
+     */
+    List<SongDataAccessor.Result> lookup(List<SongDataAccessor.Request> requests, String joinQuery,
+                                         SongDataReader reader) throws SQLException {
+        if (!isCreated) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TEMP TABLE IF NOT EXISTS lookup_hash(hash TEXT PRIMARY KEY)");
+            }
+            isCreated = true;
+        }
+        final boolean isAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            final PreparedStatement insertStatement = statementCache.prepare(
+                    "INSERT OR IGNORE INTO " + TABLE_NAME + "(hash) VALUES (?)");
+            for (final SongDataAccessor.Request request : requests) {
+                insertStatement.setString(1, request.hash().toHex());
+                insertStatement.addBatch();
+            }
+            insertStatement.executeBatch();
+
+            final RequestIndex index = new RequestIndex(requests);
+            try (final ResultSet resultSet = statementCache.prepare(joinQuery).executeQuery()) {
+                while (resultSet.next()) {
+                    index.add(reader.read(resultSet));
+                }
+            }
+            return index.toResults();
+        } finally {
+            // 入れたハッシュはロールバックで消す
+            connection.rollback();
+            connection.setAutoCommit(isAutoCommit);
+        }
+    }
+
+    /**
+     * テーブルの列がいずれかの索引の先頭の列になっているかを返す
+     *
+     * @param connection 接続
+     * @param table      テーブル名
+     * @param column     列名
+     * @return 索引で検索できるか
+     * @throws SQLException SQLに関する例外
+     */
+    static boolean isIndexedColumn(Connection connection, String table, String column)
+            throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            final List<String> indexNames = new ArrayList<>();
+            try (final ResultSet resultSet = statement.executeQuery(
+                    "PRAGMA index_list(" + table + ")")) {
+                while (resultSet.next()) {
+                    indexNames.add(resultSet.getString("name"));
+                }
+            }
+            for (final String indexName : indexNames) {
+                try (final ResultSet resultSet = statement.executeQuery(
+                        "PRAGMA index_info(\"" + indexName.replace("\"", "\"\"") + "\")")) {
+                    while (resultSet.next()) {
+                        if (resultSet.getInt("seqno") == 0
+                                && column.equalsIgnoreCase(resultSet.getString("name"))) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 検索結果の行を楽曲データに変換する関数
+     */
+    @FunctionalInterface
+    interface SongDataReader {
+        SongData read(ResultSet resultSet) throws SQLException;
+    }
+}
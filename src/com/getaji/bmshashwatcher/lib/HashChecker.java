@@ -1,5 +1,7 @@
 package com.getaji.bmshashwatcher.lib;
 
+import com.getaji.bmshashwatcher.model.BMSHashData;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -23,6 +25,29 @@ public final class HashChecker {
     public static final Pattern PATTERN_SHA256_PART = Pattern.compile("[a-fA-F\\d]{64}");
     public static final Pattern PATTERN_PART = Pattern.compile("[a-fA-F\\d]{64}|[a-fA-F\\d]{32}");
 
+    public static final int MD5_HASH_LENGTH = 32;
+    public static final int SHA256_HASH_LENGTH = 64;
+
+    /**
+     * Vector APIで走査する入力の最小の長さ
+     * これより短い入力ではバッファへの複写などのコストが上回るのでスカラーで走査する
+     */
+    public static final int VECTOR_SCAN_THRESHOLD = 1 << 16;
+
+    /**
+     * jdk.incubator.vectorモジュールが読み込まれているか
+     * 起動時に --add-modules jdk.incubator.vector が指定された場合のみtrueになる
+     */
+    private static final boolean IS_VECTOR_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /**
+     * Vector APIで走査するクラス（利用できなければnull）
+     * 本体をフラグなしでコンパイルできるように、別のモジュールのクラスを名前で読み込む
+     */
+    private static final HashPartScanner VECTOR_SCANNER =
+            IS_VECTOR_AVAILABLE ? loadVectorScanner() : null;
+
     /**
      * 与えられた文字列がMD5ハッシュの形式に一致するかを返す
      *
@@ -83,12 +108,151 @@ public final class HashChecker {
         return list;
     }
 
+    /**
+     * 与えられた文字列に含まれるハッシュの形式に一致する部分をすべて返す
+     * 結果はPATTERN_PARTで検索した場合と同じになる
+     *
+     * @param s 文字列
+     * @return 一致した部分のリスト
+     */
     public static List<String> getHashPartAll(String s) {
-        final Matcher matcher = PATTERN_PART.matcher(s);
         final ArrayList<String> list = new ArrayList<>();
-        while (matcher.find()) {
-            list.add(matcher.group());
-        }
+        scanHashParts(s, (offset, length, hashType) -> list.add(s.substring(offset, offset + length)));
         return list;
     }
+
+    /**
+     * 与えられた文字がハッシュに使われる16進数の文字かを返す
+     *
+     * @param c 文字
+     * @return 16進数の文字か
+     */
+    public static boolean isHexChar(char c) {
+        if (c >= '0' && c <= '9') return true;
+        final int lower = c | 0x20;
+        return lower >= 'a' && lower <= 'f';
+    }
+
+    /**
+     * 与えられた文字列を走査し、ハッシュの形式に一致する部分を見つけるたびに通知する
+     *
+     * @param s        文字列
+     * @param consumer 一致した部分の通知先
+     * @return 一致した部分の件数
+     * @see #scanHashParts(CharSequence, int, int, HashPartConsumer)
+     */
+    public static int scanHashParts(CharSequence s, HashPartConsumer consumer) {
+        return scanHashParts(s, 0, s.length(), consumer);
+    }
+
+    /**
+     * 与えられた文字列の範囲を1回だけ走査し、ハッシュの形式に一致する部分を見つけるたびに通知する
+     * 正規表現やStringを使わないので、一致した部分がなければメモリを確保しない
+     * 入力がVECTOR_SCAN_THRESHOLD以上でVector APIが利用できる場合はそちらで走査する
+     * 16進数の文字の連続を先頭から64文字ずつ、残りが64文字未満なら32文字ずつ切り出すので、
+     * PATTERN_PARTで検索した場合と同じ結果になる
+     *
+     * @param s        文字列
+     * @param start    走査を開始する位置
+     * @param end      走査を終了する位置（この位置は含まない）
+     * @param consumer 一致した部分の通知先
+     * @return 一致した部分の件数
+     */
+    public static int scanHashParts(CharSequence s, int start, int end, HashPartConsumer consumer) {
+        if (VECTOR_SCANNER != null && end - start >= VECTOR_SCAN_THRESHOLD) {
+            return VECTOR_SCANNER.scan(s, start, end, consumer);
+        }
+        return scanHashPartsScalar(s, start, end, consumer);
+    }
+
+    /**
+     * scanHashPartsのスカラー版
+     * Vector APIが利用できない場合や入力が短い場合に使われる
+     */
+    static int scanHashPartsScalar(CharSequence s, int start, int end, HashPartConsumer consumer) {
+        int count = 0;
+        int i = start;
+        while (i < end) {
+            if (!isHexChar(s.charAt(i))) {
+                i++;
+                continue;
+            }
+            final int runStart = i;
+            i++;
+            while (i < end && isHexChar(s.charAt(i))) {
+                i++;
+            }
+            count += emitHashParts(runStart, i - runStart, consumer);
+        }
+        return count;
+    }
+
+    /**
+     * 16進数の文字の連続をハッシュの長さに切り出して通知する
+     *
+     * @param runStart  連続の開始位置
+     * @param runLength 連続の長さ
+     * @param consumer  通知先
+     * @return 通知した件数
+     */
+    static int emitHashParts(int runStart, int runLength, HashPartConsumer consumer) {
+        int count = 0;
+        int offset = runStart;
+        int remaining = runLength;
+        while (remaining >= SHA256_HASH_LENGTH) {
+            consumer.accept(offset, SHA256_HASH_LENGTH, BMSHashData.HashType.SHA256);
+            offset += SHA256_HASH_LENGTH;
+            remaining -= SHA256_HASH_LENGTH;
+            count++;
+        }
+        if (remaining >= MD5_HASH_LENGTH) {
+            consumer.accept(offset, MD5_HASH_LENGTH, BMSHashData.HashType.MD5);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 長い入力をVector APIで走査するか
+     */
+    static boolean isVectorScanEnabled() {
+        return VECTOR_SCANNER != null;
+    }
+
+    /**
+     * vectorモジュールのVectorHashScannerを読み込む
+     *
+     * @return インスタンス（vectorモジュールを含めずにビルドされた場合はnull）
+     */
+    private static HashPartScanner loadVectorScanner() {
+        try {
+            return Class.forName("com.getaji.bmshashwatcher.lib.VectorHashScanner")
+                    .asSubclass(HashPartScanner.class)
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // スカラーで走査する
+            return null;
+        }
+    }
+
+    /**
+     * scanHashPartsと同じ結果になる走査の実装
+     */
+    interface HashPartScanner {
+        int scan(CharSequence s, int start, int end, HashPartConsumer consumer);
+    }
+
+    /**
+     * ハッシュの形式に一致する部分を受け取る関数
+     */
+    @FunctionalInterface
+    public interface HashPartConsumer {
+        /**
+         * @param offset   一致した部分の開始位置
+         * @param length   一致した部分の長さ
+         * @param hashType 長さから判定したハッシュの種類
+         */
+        void accept(int offset, int length, BMSHashData.HashType hashType);
+    }
 }
@@ -0,0 +1,194 @@
+package com.getaji.bmshashwatcher.lib;
+
+import com.getaji.bmshashwatcher.model.BMSHashData;
+import com.getaji.bmshashwatcher.model.HashKey;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ReaderやChannelから固定サイズのチャンクごとにデータを読み、ハッシュを検出するクラス
+ * チャンクの境界をまたぐ16進数の文字の連続は次のチャンクに持ち越すので、
+ * 入力全体をStringにしなくてもHashChecker.getHashPartAllと同じ結果を順に通知できる
+ * 保持するのは最大64文字分の持ち越しだけなので、入力の大きさに関わらずメモリ使用量は一定
+ */
+public class HashStreamScanner {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final HashConsumer consumer;
+    private final char[] pending = new char[HashChecker.SHA256_HASH_LENGTH];
+    private final CharBuffer pendingView = CharBuffer.wrap(pending);
+    private int pendingLength = 0;
+    private long count = 0;
+
+    /**
+     * 検出したハッシュの通知先を指定してインスタンスを作成する
+     *
+     * @param consumer 通知先
+     */
+    public HashStreamScanner(HashConsumer consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * 文字のチャンクを走査する
+     *
+     * @param chars  チャンク
+     * @param offset 開始位置
+     * @param length 長さ
+     */
+    public void feed(char[] chars, int offset, int length) {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final char c = chars[i];
+            if (HashChecker.isHexChar(c)) {
+                pushHexChar(c);
+            } else {
+                endRun();
+            }
+        }
+    }
+
+    /**
+     * ASCII互換のエンコーディングのバイト列のチャンクを走査する
+     * 16進数の文字はすべて1バイトで表されるので、文字にデコードせずに走査できる
+     *
+     * @param bytes チャンク（positionからlimitまでを走査する）
+     */
+    public void feed(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            final char c = (char) (bytes.get() & 0xFF);
+            if (HashChecker.isHexChar(c)) {
+                pushHexChar(c);
+            } else {
+                endRun();
+            }
+        }
+    }
+
+    /**
+     * 入力の終端に達したことを通知し、持ち越している連続を確定する
+     * 終了後も新たな入力を続けて走査できる
+     */
+    public void finish() {
+        endRun();
+    }
+
+    /**
+     * これまでに通知したハッシュの件数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    private void pushHexChar(char c) {
+        pending[pendingLength++] = c;
+        // 64文字に達したら連続の続きに関わらずSHA-256として確定する
+        if (pendingLength == HashChecker.SHA256_HASH_LENGTH) {
+            emit(BMSHashData.HashType.SHA256);
+        }
+    }
+
+    private void endRun() {
+        if (pendingLength >= HashChecker.MD5_HASH_LENGTH) {
+            emit(BMSHashData.HashType.MD5);
+        }
+        pendingLength = 0;
+    }
+
+    private void emit(BMSHashData.HashType hashType) {
+        pendingLength = 0;
+        count++;
+        consumer.accept(HashKey.parse(pendingView, 0, hashType));
+    }
+
+    /**
+     * Readerを終端まで読み、検出したハッシュを順に通知する
+     *
+     * @param reader     入力（閉じない）
+     * @param bufferSize チャンクの大きさ
+     * @param consumer   通知先
+     * @return 検出したハッシュの件数
+     * @throws IOException 読み込みに失敗
+     */
+    public static long scan(Reader reader, int bufferSize, HashConsumer consumer) throws IOException {
+        final HashStreamScanner scanner = new HashStreamScanner(consumer);
+        final char[] buffer = new char[bufferSize];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            scanner.feed(buffer, 0, read);
+        }
+        scanner.finish();
+        return scanner.getCount();
+    }
+
+    public static long scan(Reader reader, HashConsumer consumer) throws IOException {
+        return scan(reader, DEFAULT_BUFFER_SIZE, consumer);
+    }
+
+    /**
+     * Channelを終端まで読み、検出したハッシュを順に通知する
+     * UTF-8などASCII互換のエンコーディングならデコードせずにバイト列のまま走査する
+     *
+     * @param channel    入力（閉じない）
+     * @param charset    入力のエンコーディング
+     * @param bufferSize チャンクの大きさ
+     * @param consumer   通知先
+     * @return 検出したハッシュの件数
+     * @throws IOException 読み込みに失敗
+     */
+    public static long scan(ReadableByteChannel channel, Charset charset, int bufferSize,
+                            HashConsumer consumer) throws IOException {
+        if (!isAsciiCompatible(charset)) {
+            return scan(Channels.newReader(channel, charset.newDecoder(), bufferSize), bufferSize,
+                    consumer);
+        }
+        final HashStreamScanner scanner = new HashStreamScanner(consumer);
+        final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            scanner.feed(buffer);
+            buffer.clear();
+        }
+        scanner.finish();
+        return scanner.getCount();
+    }
+
+    public static long scan(ReadableByteChannel channel, Charset charset, HashConsumer consumer)
+            throws IOException {
+        return scan(channel, charset, DEFAULT_BUFFER_SIZE, consumer);
+    }
+
+    public static long scan(InputStream inputStream, Charset charset, HashConsumer consumer)
+            throws IOException {
+        return scan(Channels.newChannel(inputStream), charset, DEFAULT_BUFFER_SIZE, consumer);
+    }
+
+    /**
+     * 16進数の文字を1バイトで表し、他の文字の一部に0x00-0x7Fのバイトを使わないエンコーディングか
+     * Shift_JISなどは2バイト目に英字と同じバイトが現れるので含めない
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 検出したハッシュを受け取る関数
+     */
+    @FunctionalInterface
+    public interface HashConsumer {
+        /**
+         * @param hash 検出したハッシュ
+         */
+        void accept(HashKey hash);
+    }
+}
@@ -0,0 +1,55 @@
+package com.getaji.bmshashwatcher.lib;
+
+import java.io.Serial;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 最大件数を超えると最も長く参照されていない要素から削除するマップ
+ * スレッドセーフではない
+ *
+ * @param <K> キーの型
+ * @param <V> 値の型
+ */
+public class LruCache<K, V> extends LinkedHashMap<K, V> {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private int maxSize;
+
+    /**
+     * @param maxSize 最大件数（0なら何も保持しない）
+     */
+    public LruCache(int maxSize) {
+        super(16, 0.75f, true);
+        setMaxSize(maxSize);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 最大件数を設定する
+     * 現在の件数が超えている場合は古い要素から削除する
+     *
+     * @param maxSize 最大件数（0なら何も保持しない）
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be 0 or more");
+        }
+        this.maxSize = maxSize;
+        final Iterator<Map.Entry<K, V>> iterator = entrySet().iterator();
+        while (size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+    }
+}
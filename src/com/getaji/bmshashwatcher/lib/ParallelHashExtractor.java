@@ -0,0 +1,86 @@
+package com.getaji.bmshashwatcher.lib;
+
+import com.getaji.bmshashwatcher.model.HashKey;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 大きな文字列を分割し、共通のForkJoinPoolで並列にハッシュを検出するクラス
+ * 分割位置は16進数の文字の連続の外側にずらすので、ハッシュが分割位置で切れることはなく、
+ * 結果はHashChecker.scanHashPartsで順に走査した場合と同じになる
+ */
+public final class ParallelHashExtractor {
+    /**
+     * 並列に走査する入力の最小の長さ
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    /**
+     * 1区間の最小の長さ
+     */
+    public static final int MIN_SEGMENT_LENGTH = 1 << 18;
+
+    private ParallelHashExtractor() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * 与えられた文字列に含まれるハッシュを、重複を除いて最初に現れた順に返す
+     * PARALLEL_THRESHOLD以上の入力は共通のForkJoinPoolで並列に走査する
+     * 共通のForkJoinPoolの並列度が1以下なら分割しても速くならないので順に走査する
+     *
+     * @param s 文字列
+     * @return 重複を除いたハッシュ
+     */
+    public static LinkedHashSet<HashKey> extractDistinct(CharSequence s) {
+        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        if (s.length() < PARALLEL_THRESHOLD || pool.getParallelism() <= 1) {
+            return scanSegment(s, 0, s.length());
+        }
+        final int segmentLength = Math.max(MIN_SEGMENT_LENGTH,
+                s.length() / (pool.getParallelism() * 4));
+
+        // 区間ごとに走査と重複の除去を並列に行う
+        final List<ForkJoinTask<LinkedHashSet<HashKey>>> tasks = new ArrayList<>();
+        int start = 0;
+        while (start < s.length()) {
+            final int segmentStart = start;
+            final int segmentEnd = findSplitPoint(s,
+                    Math.min(start + segmentLength, s.length()), s.length());
+            tasks.add(pool.submit(() -> scanSegment(s, segmentStart, segmentEnd)));
+            start = segmentEnd;
+        }
+
+        // 先頭の区間から順に結合することで最初に現れた順を保つ
+        // 結合は後続の区間の走査と並行して進む
+        final LinkedHashSet<HashKey> hashes = tasks.get(0).join();
+        for (int i = 1; i < tasks.size(); i++) {
+            hashes.addAll(tasks.get(i).join());
+        }
+        return hashes;
+    }
+
+    private static LinkedHashSet<HashKey> scanSegment(CharSequence s, int start, int end) {
+        final LinkedHashSet<HashKey> hashes = new LinkedHashSet<>();
+        HashChecker.scanHashParts(s, start, end, (offset, length, hashType) ->
+                hashes.add(HashKey.parse(s, offset, hashType)));
+        return hashes;
+    }
+
+    /**
+     * 分割位置を16進数の文字の連続が終わる位置まで後ろにずらす
+     *
+     * @return ずらした分割位置（endに達した場合はend）
+     */
+    private static int findSplitPoint(CharSequence s, int position, int end) {
+        int i = position;
+        while (i < end && HashChecker.isHexChar(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
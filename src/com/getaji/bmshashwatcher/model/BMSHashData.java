@@ -1,5 +1,7 @@
 package com.getaji.bmshashwatcher.model;
 
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
@@ -10,15 +12,36 @@ import java.util.Objects;
  */
 public class BMSHashData {
     private final StringProperty title = new SimpleStringProperty();
-    private final StringProperty md5Hash = new SimpleStringProperty();
-    private final StringProperty sha256Hash = new SimpleStringProperty();
-
-    public BMSHashData(String title, String md5Hash, String sha256Hash) {
+    private final ObjectProperty<Md5Key> md5Hash = new SimpleObjectProperty<>();
+    private final ObjectProperty<Sha256Key> sha256Hash = new SimpleObjectProperty<>();
+    // 楽曲データを取得中か（リストに追加した後はFXスレッドで読み書きする）
+    private boolean isPending = false;
+
+    /**
+     * @param title      タイトル
+     * @param md5Hash    MD5ハッシュ（不明ならnull）
+     * @param sha256Hash SHA-256ハッシュ（不明ならnull）
+     */
+    public BMSHashData(String title, Md5Key md5Hash, Sha256Key sha256Hash) {
         this.title.set(title);
         this.md5Hash.set(md5Hash);
         this.sha256Hash.set(sha256Hash);
     }
 
+    /**
+     * 片方のハッシュのみが判明しているデータを作成する
+     *
+     * @param title タイトル
+     * @param hash  ハッシュ
+     */
+    public BMSHashData(String title, HashKey hash) {
+        this(
+                title,
+                hash instanceof Md5Key md5 ? md5 : null,
+                hash instanceof Sha256Key sha256 ? sha256 : null
+        );
+    }
+
     public String getTitle() {
         return title.get();
     }
@@ -31,30 +54,42 @@ public class BMSHashData {
         this.title.set(title);
     }
 
-    public String getMD5Hash() {
+    public Md5Key getMD5Hash() {
         return md5Hash.get();
     }
 
-    public StringProperty md5HashProperty() {
+    public ObjectProperty<Md5Key> md5HashProperty() {
         return md5Hash;
     }
 
-    public void setMD5Hash(String md5Hash) {
+    public void setMD5Hash(Md5Key md5Hash) {
         this.md5Hash.set(md5Hash);
     }
 
-    public String getSHA256Hash() {
+    public Sha256Key getSHA256Hash() {
         return sha256Hash.get();
     }
 
-    public StringProperty sha256HashProperty() {
+    public ObjectProperty<Sha256Key> sha256HashProperty() {
         return sha256Hash;
     }
 
-    public void setSHA256Hash(String sha256Hash) {
+    public void setSHA256Hash(Sha256Key sha256Hash) {
         this.sha256Hash.set(sha256Hash);
     }
 
+    public boolean isPending() {
+        return isPending;
+    }
+
+    /**
+     * 楽曲データを取得中かを設定する
+     * 取得中の行は取得済みのハッシュとして扱わない
+     */
+    public void setPending(boolean pending) {
+        isPending = pending;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -43,6 +43,24 @@ public class Config {
 
     private int clipboardDelay = 1000;
 
+    private int clipboardMaxDelay = 4000;
+
+    private int clipboardRecentContentCacheSize = 32;
+
+    private boolean useSongDataSnapshot = false;
+
+    private boolean fastSongDataRead = false;
+
+    private boolean immutableSongDataRead = false;
+
+    private boolean copySongData = false;
+
+    private boolean parallelSongDataPolling = false;
+
+    private int songDataNegativeCacheTtl = 0;
+
+    private boolean useSongHashFilter = false;
+
     @JsonProperty("configVersion")
     public int getConfigVersion() {
         return configVersion;
@@ -113,6 +131,119 @@ public class Config {
         this.clipboardDelay = clipboardDelay;
     }
 
+    /**
+     * 変更がない間に延ばすクリップボードの監視間隔の上限（ミリ秒）
+     * clipboardDelayより小さい場合はclipboardDelayで監視し続ける
+     */
+    @JsonProperty("clipboardMaxDelay")
+    public int getClipboardMaxDelay() {
+        return clipboardMaxDelay;
+    }
+
+    public void setClipboardMaxDelay(int clipboardMaxDelay) {
+        this.clipboardMaxDelay = clipboardMaxDelay;
+    }
+
+    /**
+     * 最近のクリップボードの値と検出したハッシュを保持する件数
+     * 保持している値に戻った場合は走査せずに通知する（0なら保持しない）
+     */
+    @JsonProperty("clipboardRecentContentCacheSize")
+    public int getClipboardRecentContentCacheSize() {
+        return clipboardRecentContentCacheSize;
+    }
+
+    public void setClipboardRecentContentCacheSize(int clipboardRecentContentCacheSize) {
+        this.clipboardRecentContentCacheSize = clipboardRecentContentCacheSize;
+    }
+
+    /**
+     * 楽曲データベースを開いた時に全体をメモリに読み込み、SQLiteを使わずに検索するか
+     */
+    @JsonProperty("useSongDataSnapshot")
+    public boolean isUseSongDataSnapshot() {
+        return useSongDataSnapshot;
+    }
+
+    public void setUseSongDataSnapshot(boolean useSongDataSnapshot) {
+        this.useSongDataSnapshot = useSongDataSnapshot;
+    }
+
+    /**
+     * 楽曲データベースをメモリマップと大きめのページキャッシュで開くか
+     */
+    @JsonProperty("fastSongDataRead")
+    public boolean isFastSongDataRead() {
+        return fastSongDataRead;
+    }
+
+    public void setFastSongDataRead(boolean fastSongDataRead) {
+        this.fastSongDataRead = fastSongDataRead;
+    }
+
+    /**
+     * 高速読み込みの時、BMSプレイヤーが書き込んでいなければ変更されないものとして開くか
+     */
+    @JsonProperty("immutableSongDataRead")
+    public boolean isImmutableSongDataRead() {
+        return immutableSongDataRead;
+    }
+
+    public void setImmutableSongDataRead(boolean immutableSongDataRead) {
+        this.immutableSongDataRead = immutableSongDataRead;
+    }
+
+    /**
+     * 楽曲データベースを一時ファイルに複製し、複製から検索するか
+     * BMSプレイヤーが書き込んでいる間も待たずに検索できる
+     */
+    @JsonProperty("copySongData")
+    public boolean isCopySongData() {
+        return copySongData;
+    }
+
+    public void setCopySongData(boolean copySongData) {
+        this.copySongData = copySongData;
+    }
+
+    /**
+     * beatorajaとLR2の楽曲データベースを同時に検索するか
+     * 両方で見つかった場合はbeatorajaの結果を使う
+     */
+    @JsonProperty("parallelSongDataPolling")
+    public boolean isParallelSongDataPolling() {
+        return parallelSongDataPolling;
+    }
+
+    public void setParallelSongDataPolling(boolean parallelSongDataPolling) {
+        this.parallelSongDataPolling = parallelSongDataPolling;
+    }
+
+    /**
+     * 見つからなかったハッシュを覚えておく時間（秒、0なら楽曲データベースが変わるまで）
+     */
+    @JsonProperty("songDataNegativeCacheTtl")
+    public int getSongDataNegativeCacheTtl() {
+        return songDataNegativeCacheTtl;
+    }
+
+    public void setSongDataNegativeCacheTtl(int songDataNegativeCacheTtl) {
+        this.songDataNegativeCacheTtl = songDataNegativeCacheTtl;
+    }
+
+    /**
+     * 楽曲データベースの全てのハッシュからフィルタを作成し、含まれないハッシュをSQLを使わずに除外するか
+     * フィルタは接続した後にバックグラウンドで作成する（スナップショットを使う場合は作成しない）
+     */
+    @JsonProperty("useSongHashFilter")
+    public boolean isUseSongHashFilter() {
+        return useSongHashFilter;
+    }
+
+    public void setUseSongHashFilter(boolean useSongHashFilter) {
+        this.useSongHashFilter = useSongHashFilter;
+    }
+
     private static boolean migrate(Config config) {
         boolean isMigrated = false;
         if (config.configVersion < 1) {
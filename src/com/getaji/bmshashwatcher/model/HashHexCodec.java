@@ -0,0 +1,78 @@
+package com.getaji.bmshashwatcher.model;
+
+import java.util.Arrays;
+
+/**
+ * ハッシュ値の16進数表現とlongを相互に変換するユーティリティクラス
+ * 大文字と小文字のどちらも受け付け、出力は常に小文字になる
+ */
+final class HashHexCodec {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HashHexCodec() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * 16文字の16進数を検証しながら64ビットの値に変換する
+     *
+     * @param s      文字列
+     * @param offset 開始位置
+     * @return 変換した値
+     * @throws IllegalArgumentException 16進数ではない文字が含まれている
+     */
+    static long decodeLong(CharSequence s, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 16; i++) {
+            final char c = s.charAt(i);
+            final int digit = c < 128 ? HEX_VALUES[c] : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException("16進数ではない文字が含まれています: " + c);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * 64ビットの値を小文字の16進数16文字に変換して書き込む
+     *
+     * @param value  値
+     * @param dst    書き込み先
+     * @param offset 書き込みを開始する位置
+     */
+    static void encodeLong(long value, char[] dst, int offset) {
+        for (int i = offset + 15; i >= offset; i--) {
+            dst[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * 文字列が指定した長さの16進数かを返す
+     *
+     * @param s      文字列
+     * @param length 長さ
+     * @return 指定した長さの16進数か
+     */
+    static boolean isHex(CharSequence s, int length) {
+        if (s.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c >= 128 || HEX_VALUES[c] < 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,48 @@
+package com.getaji.bmshashwatcher.model;
+
+/**
+ * バイナリで保持するBMSハッシュの値（不変）
+ * 16進数の文字列への変換はJDBCとUIとの境界でのみ行う
+ */
+public sealed interface HashKey permits Md5Key, Sha256Key {
+    /**
+     * ハッシュの種類を返す
+     */
+    BMSHashData.HashType hashType();
+
+    /**
+     * 小文字の16進数表現を返す
+     */
+    String toHex();
+
+    /**
+     * 16進数の文字列を長さに応じてMD5またはSHA-256ハッシュに変換する
+     *
+     * @param s 16進数の文字列
+     * @return ハッシュ
+     * @throws IllegalArgumentException ハッシュの形式ではない
+     */
+    static HashKey parse(CharSequence s) {
+        return switch (s.length()) {
+            case Md5Key.HEX_LENGTH -> Md5Key.parse(s);
+            case Sha256Key.HEX_LENGTH -> Sha256Key.parse(s);
+            default -> throw new IllegalArgumentException("ハッシュの長さが不正です: " + s.length());
+        };
+    }
+
+    /**
+     * 文字列の一部を指定した種類のハッシュに変換する
+     *
+     * @param s        文字列
+     * @param offset   開始位置
+     * @param hashType ハッシュの種類
+     * @return ハッシュ
+     * @throws IllegalArgumentException ハッシュの形式ではない
+     */
+    static HashKey parse(CharSequence s, int offset, BMSHashData.HashType hashType) {
+        return switch (hashType) {
+            case MD5 -> Md5Key.parse(s, offset);
+            case SHA256 -> Sha256Key.parse(s, offset);
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package com.getaji.bmshashwatcher.model;
+
+/**
+ * 2つのlongで保持するMD5ハッシュ（不変）
+ */
+public final class Md5Key implements HashKey {
+    public static final int HEX_LENGTH = 32;
+
+    private final long high;
+    private final long low;
+    private final int hashCode;
+
+    public Md5Key(long high, long low) {
+        this.high = high;
+        this.low = low;
+        this.hashCode = 31 * Long.hashCode(high) + Long.hashCode(low);
+    }
+
+    /**
+     * 32文字の16進数をMD5ハッシュに変換する
+     *
+     * @param s 文字列
+     * @return MD5ハッシュ
+     * @throws IllegalArgumentException MD5ハッシュの形式ではない
+     */
+    public static Md5Key parse(CharSequence s) {
+        if (s.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("MD5ハッシュの長さが不正です: " + s.length());
+        }
+        return parse(s, 0);
+    }
+
+    /**
+     * 文字列の指定した位置から32文字をMD5ハッシュに変換する
+     *
+     * @param s      文字列
+     * @param offset 開始位置
+     * @return MD5ハッシュ
+     * @throws IllegalArgumentException 16進数ではない文字が含まれている
+     */
+    public static Md5Key parse(CharSequence s, int offset) {
+        return new Md5Key(
+                HashHexCodec.decodeLong(s, offset),
+                HashHexCodec.decodeLong(s, offset + 16)
+        );
+    }
+
+    /**
+     * 文字列がMD5ハッシュの形式なら変換し、そうでなければnullを返す
+     * データベースの空欄などを読むために使う
+     *
+     * @param s 文字列（null可）
+     * @return MD5ハッシュまたはnull
+     */
+    public static Md5Key parseOrNull(String s) {
+        if (s == null || !HashHexCodec.isHex(s, HEX_LENGTH)) return null;
+        return parse(s, 0);
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public BMSHashData.HashType hashType() {
+        return BMSHashData.HashType.MD5;
+    }
+
+    @Override
+    public String toHex() {
+        final char[] chars = new char[HEX_LENGTH];
+        HashHexCodec.encodeLong(high, chars, 0);
+        HashHexCodec.encodeLong(low, chars, 16);
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Md5Key that)) return false;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
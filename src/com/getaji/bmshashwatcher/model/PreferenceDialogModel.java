@@ -10,6 +10,7 @@ public class PreferenceDialogModel {
     private final StringProperty beatorajaPath = new SimpleStringProperty();
     private final StringProperty lr2Path = new SimpleStringProperty();
     private final IntegerProperty clipboardDelay = new SimpleIntegerProperty();
+    private final IntegerProperty clipboardMaxDelay = new SimpleIntegerProperty();
     private final ListProperty<WebService> webServices =
             new SimpleListProperty<>(FXCollections.observableArrayList());
 
@@ -60,4 +61,12 @@ public class PreferenceDialogModel {
     public IntegerProperty clipboardDelayProperty() {
         return clipboardDelay;
     }
+
+    public int getClipboardMaxDelay() {
+        return clipboardMaxDelay.get();
+    }
+
+    public IntegerProperty clipboardMaxDelayProperty() {
+        return clipboardMaxDelay;
+    }
 }
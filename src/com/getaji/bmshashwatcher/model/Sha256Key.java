@@ -0,0 +1,115 @@
+package com.getaji.bmshashwatcher.model;
+
+/**
+ * 4つのlongで保持するSHA-256ハッシュ（不変）
+ */
+public final class Sha256Key implements HashKey {
+    public static final int HEX_LENGTH = 64;
+
+    private final long word0;
+    private final long word1;
+    private final long word2;
+    private final long word3;
+    private final int hashCode;
+
+    public Sha256Key(long word0, long word1, long word2, long word3) {
+        this.word0 = word0;
+        this.word1 = word1;
+        this.word2 = word2;
+        this.word3 = word3;
+        this.hashCode = 31 * (31 * (31 * Long.hashCode(word0) + Long.hashCode(word1))
+                + Long.hashCode(word2)) + Long.hashCode(word3);
+    }
+
+    /**
+     * 64文字の16進数をSHA-256ハッシュに変換する
+     *
+     * @param s 文字列
+     * @return SHA-256ハッシュ
+     * @throws IllegalArgumentException SHA-256ハッシュの形式ではない
+     */
+    public static Sha256Key parse(CharSequence s) {
+        if (s.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("SHA-256ハッシュの長さが不正です: " + s.length());
+        }
+        return parse(s, 0);
+    }
+
+    /**
+     * 文字列の指定した位置から64文字をSHA-256ハッシュに変換する
+     *
+     * @param s      文字列
+     * @param offset 開始位置
+     * @return SHA-256ハッシュ
+     * @throws IllegalArgumentException 16進数ではない文字が含まれている
+     */
+    public static Sha256Key parse(CharSequence s, int offset) {
+        return new Sha256Key(
+                HashHexCodec.decodeLong(s, offset),
+                HashHexCodec.decodeLong(s, offset + 16),
+                HashHexCodec.decodeLong(s, offset + 32),
+                HashHexCodec.decodeLong(s, offset + 48)
+        );
+    }
+
+    /**
+     * 文字列がSHA-256ハッシュの形式なら変換し、そうでなければnullを返す
+     * データベースの空欄などを読むために使う
+     *
+     * @param s 文字列（null可）
+     * @return SHA-256ハッシュまたはnull
+     */
+    public static Sha256Key parseOrNull(String s) {
+        if (s == null || !HashHexCodec.isHex(s, HEX_LENGTH)) return null;
+        return parse(s, 0);
+    }
+
+    /**
+     * 先頭から数えてindex番目の64ビットを返す
+     *
+     * @param index 0から3
+     * @return 値
+     */
+    public long getWord(int index) {
+        return switch (index) {
+            case 0 -> word0;
+            case 1 -> word1;
+            case 2 -> word2;
+            case 3 -> word3;
+            default -> throw new IndexOutOfBoundsException(index);
+        };
+    }
+
+    @Override
+    public BMSHashData.HashType hashType() {
+        return BMSHashData.HashType.SHA256;
+    }
+
+    @Override
+    public String toHex() {
+        final char[] chars = new char[HEX_LENGTH];
+        HashHexCodec.encodeLong(word0, chars, 0);
+        HashHexCodec.encodeLong(word1, chars, 16);
+        HashHexCodec.encodeLong(word2, chars, 32);
+        HashHexCodec.encodeLong(word3, chars, 48);
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Sha256Key that)) return false;
+        return word0 == that.word0 && word1 == that.word1
+                && word2 == that.word2 && word3 == that.word3;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -1,6 +1,14 @@
 package com.getaji.bmshashwatcher.model;
 
-public record SongData(String md5, String sha256, String title, String subtitle) {
+/**
+ * 楽曲データ
+ *
+ * @param md5      MD5ハッシュ（存在しなければnull）
+ * @param sha256   SHA-256ハッシュ（存在しなければnull）
+ * @param title    タイトル
+ * @param subtitle サブタイトル
+ */
+public record SongData(Md5Key md5, Sha256Key sha256, String title, String subtitle) {
 
     public String getTitleFull() {
         return subtitle.length() > 0 ? title + " " + subtitle : title;
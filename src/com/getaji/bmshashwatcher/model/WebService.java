@@ -61,8 +61,8 @@ public class WebService {
     private String createUrl(String pattern, BMSHashData.HashType hashType, BMSHashData data) {
         final String hash;
         switch (hashType) {
-            case MD5 -> hash = data.getMD5Hash();
-            case SHA256 -> hash = data.getSHA256Hash();
+            case MD5 -> hash = data.getMD5Hash().toHex();
+            case SHA256 -> hash = data.getSHA256Hash().toHex();
             default -> throw new IllegalArgumentException();
         }
         return pattern.replace("%h", hash).replace("%t", data.getTitle());
@@ -72,22 +72,22 @@ public class WebService {
     public Either<String, String> getURL(BMSHashData data) {
         switch (getSupportedHashType()) {
             case MD5 -> {
-                if (data.getMD5Hash().equals("")) {
+                if (data.getMD5Hash() == null) {
                     return Either.left("このデータにはMD5ハッシュがありません");
                 }
                 return Either.right(createUrl(md5UrlPattern, BMSHashData.HashType.MD5, data));
             }
             case SHA256 -> {
-                if (data.getSHA256Hash().equals("")) {
+                if (data.getSHA256Hash() == null) {
                     return Either.left("このデータにはSHA256ハッシュがありません");
                 }
                 return Either.right(createUrl(sha256UrlPattern, BMSHashData.HashType.SHA256, data));
             }
             case MD5_AND_SHA256 -> {
-                if (data.getMD5Hash().equals("") && data.getSHA256Hash().equals("")) {
+                if (data.getMD5Hash() == null && data.getSHA256Hash() == null) {
                     return Either.left("このデータにはハッシュがありません");
                 }
-                if (!data.getMD5Hash().equals("")) {
+                if (data.getMD5Hash() != null) {
                     return Either.right(createUrl(md5UrlPattern, BMSHashData.HashType.MD5, data));
                 }
                 return Either.right(createUrl(sha256UrlPattern, BMSHashData.HashType.SHA256, data));
@@ -0,0 +1,172 @@
+package com.getaji.bmshashwatcher;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClipboardFingerprintTest {
+    private static final String MD5_A = "0123456789abcdef0123456789abcdef";
+    private static final String MD5_B = "fedcba9876543210fedcba9876543210";
+
+    @Test
+    void sameTextWithDifferentLinksDiffers() throws Exception {
+        final char[] buffer = new char[16];
+        final ClipboardFingerprint first = ClipboardFingerprint.of(htmlLink(MD5_A), buffer);
+        final ClipboardFingerprint second = ClipboardFingerprint.of(htmlLink(MD5_B), buffer);
+        assertEquals(first.length(), second.length());
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void sameContentsAreEqual() throws Exception {
+        final char[] buffer = new char[16];
+        assertEquals(ClipboardFingerprint.of(htmlLink(MD5_A), buffer),
+                ClipboardFingerprint.of(htmlLink(MD5_A), buffer));
+    }
+
+    @Test
+    void uriListIsIncluded() throws Exception {
+        final char[] buffer = new char[16];
+        assertNotEquals(
+                ClipboardFingerprint.of(uriList("https://example.com/?md5=" + MD5_A), buffer),
+                ClipboardFingerprint.of(uriList("https://example.com/?md5=" + MD5_B), buffer));
+    }
+
+    @Test
+    void readChunksDoNotChangeFingerprint() throws Exception {
+        final String text = "song " + MD5_A + " title\n".repeat(5);
+        final char[] chars = new char[16];
+        final byte[] bytes = new byte[16];
+        final ClipboardFingerprint whole = ClipboardFingerprint.of(
+                streamed(text, Integer.MAX_VALUE, stream -> stream), chars, bytes);
+        for (final int chunk : new int[]{1, 3, 7, 9}) {
+            assertEquals(whole, ClipboardFingerprint.of(streamed(text, chunk, stream -> stream),
+                    chars, bytes));
+        }
+        final ClipboardFingerprint wholeChars = ClipboardFingerprint.of(streamed(text,
+                Integer.MAX_VALUE, stream -> new StringReader(text)), chars, bytes);
+        for (final int chunk : new int[]{1, 3, 5}) {
+            assertEquals(wholeChars, ClipboardFingerprint.of(streamed(text, chunk,
+                    stream -> new ChunkedReader(new StringReader(text), chunk)), chars, bytes));
+        }
+    }
+
+    @Test
+    void matchesComparesFlavorsAndLengthBeforeContent() throws Exception {
+        final char[] chars = new char[16];
+        final byte[] bytes = new byte[16];
+        final ClipboardFingerprint fingerprint =
+                ClipboardFingerprint.of(streamed(MD5_A, 5, stream -> stream), chars, bytes);
+        assertTrue(fingerprint.matches(streamed(MD5_A, 3, stream -> stream), chars, bytes));
+        assertFalse(fingerprint.matches(streamed(MD5_B, 3, stream -> stream), chars, bytes));
+        assertFalse(fingerprint.matches(streamed(MD5_A + MD5_B, 3, stream -> stream), chars, bytes));
+        // 形式の組が異なれば内容は同じでも別の値として扱う
+        assertFalse(fingerprint.matches(htmlLink(MD5_A), chars, bytes));
+    }
+
+    private static Transferable htmlLink(String md5) throws ClassNotFoundException {
+        final Map<DataFlavor, String> data = new LinkedHashMap<>();
+        data.put(new DataFlavor("text/plain;class=java.lang.String"), "song title");
+        data.put(new DataFlavor("text/html;class=java.lang.String"),
+                "<a href=\"https://example.com/?md5=" + md5 + "\">song title</a>");
+        return new MapTransferable(data);
+    }
+
+    private static Transferable uriList(String uri) throws ClassNotFoundException {
+        final Map<DataFlavor, String> data = new LinkedHashMap<>();
+        data.put(new DataFlavor("text/plain;class=java.lang.String"), "link");
+        data.put(new DataFlavor("text/uri-list;class=java.lang.String"), uri);
+        return new MapTransferable(data);
+    }
+
+    private record MapTransferable(Map<DataFlavor, String> data) implements Transferable {
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return data.keySet().toArray(DataFlavor[]::new);
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor flavor) {
+            return data.containsKey(flavor);
+        }
+
+        @Override
+        public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+            final String value = data.get(flavor);
+            if (value == null) throw new UnsupportedFlavorException(flavor);
+            return value;
+        }
+    }
+
+    /**
+     * UTF-8のバイト列を指定した大きさずつ返すtext/plainの内容
+     *
+     * @param wrapper 返す前にInputStreamを包む関数（Readerに変えてもよい）
+     */
+    private static Transferable streamed(String text, int chunk,
+                                         Function<InputStream, Object> wrapper)
+            throws ClassNotFoundException {
+        final DataFlavor flavor = new DataFlavor("text/plain;charset=UTF-8;class=java.io.InputStream");
+        return new Transferable() {
+            @Override
+            public DataFlavor[] getTransferDataFlavors() {
+                return new DataFlavor[]{flavor};
+            }
+
+            @Override
+            public boolean isDataFlavorSupported(DataFlavor f) {
+                return flavor.equals(f);
+            }
+
+            @Override
+            public Object getTransferData(DataFlavor f) throws UnsupportedFlavorException {
+                if (!flavor.equals(f)) throw new UnsupportedFlavorException(f);
+                return wrapper.apply(new ChunkedInputStream(
+                        new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), chunk));
+            }
+        };
+    }
+
+    private static final class ChunkedInputStream extends FilterInputStream {
+        private final int chunk;
+
+        ChunkedInputStream(InputStream in, int chunk) {
+            super(in);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+
+    private static final class ChunkedReader extends FilterReader {
+        private final int chunk;
+
+        ChunkedReader(Reader in, int chunk) {
+            super(in);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return super.read(cbuf, off, Math.min(len, chunk));
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.getaji.bmshashwatcher;
+
+import com.getaji.bmshashwatcher.model.Md5Key;
+import org.junit.jupiter.api.Test;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ScriptedClipboardSourceでClipboardWatcherを動かし、監視の動作を確かめる
+ */
+class ClipboardWatcherTest {
+    private static final String MD5_A = "0123456789abcdef0123456789abcdef";
+    private static final String MD5_B = "fedcba9876543210fedcba9876543210";
+    private static final String MD5_C = "00112233445566778899aabbccddeeff";
+    // 1コアの環境でも収まるようにした、スケジューラとスレッドの切り替えの遅れの許容値
+    private static final long SLACK_MILLIS = 200;
+
+    @Test
+    void detectsChangesWithinCurrentDelayAndServesRepeatsFromCache() throws Exception {
+        final CountingTransferable first = new CountingTransferable(MD5_A);
+        final CountingTransferable repeated = new CountingTransferable(MD5_A);
+        // 3件目はバースト中に最初の値に戻し、4件目はバーストが終わって間隔が上限まで延びた後に変える
+        final ScriptedClipboardSource source = new ScriptedClipboardSource()
+                .add(0, first)
+                .add(300, MD5_B)
+                .add(600, repeated)
+                .add(600 + ClipboardWatcher.BURST_DURATION + 1500, MD5_C);
+        final long maxDelay = 400;
+        final ClipboardWatcher watcher = new ClipboardWatcher(source, 100, maxDelay);
+        final List<ClipboardWatcher.Update> updates = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> detectedNanos = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch detected = new CountDownLatch(4);
+        watcher.setCallback(update -> {
+            detectedNanos.add(System.nanoTime());
+            updates.add(update);
+            detected.countDown();
+        });
+        watcher.start();
+        try {
+            assertTrue(detected.await(10, TimeUnit.SECONDS), "変更を検出しない");
+        } finally {
+            watcher.stop();
+        }
+
+        final long[] limits = {0, ClipboardWatcher.BURST_DELAY, ClipboardWatcher.BURST_DELAY, maxDelay};
+        for (int i = 0; i < limits.length; i++) {
+            final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(
+                    detectedNanos.get(i) - source.getScheduledNanos(i));
+            assertTrue(latencyMillis >= 0, "切り替わる前に検出した: " + i);
+            assertTrue(latencyMillis <= limits[i] + SLACK_MILLIS,
+                    "検出が遅い: " + i + " " + latencyMillis + "ms");
+        }
+
+        assertEquals(Set.of(Md5Key.parse(MD5_A)), updates.get(0).hashes());
+        assertFalse(updates.get(0).isRepeated());
+        assertEquals(Set.of(Md5Key.parse(MD5_B)), updates.get(1).hashes());
+        assertFalse(updates.get(1).isRepeated());
+        // 最近の値に戻った場合は文字列を取得せずに前回の検出結果を返す
+        assertTrue(updates.get(2).isRepeated());
+        assertEquals(updates.get(0).hashes(), updates.get(2).hashes());
+        assertEquals(1, first.stringReadCount.get());
+        assertEquals(0, repeated.stringReadCount.get());
+        assertEquals(Set.of(Md5Key.parse(MD5_C)), updates.get(3).hashes());
+    }
+
+    @Test
+    void burstWindowThenBacksOffToMaxDelay() throws Exception {
+        final RecordingSource source =
+                new RecordingSource(new ScriptedClipboardSource().add(0, MD5_A));
+        final ClipboardWatcher watcher = new ClipboardWatcher(source, 100, 800);
+        source.watcher = watcher;
+        watcher.start();
+        try {
+            awaitCondition(() -> Collections.frequency(source.delays(), 800L) >= 2,
+                    ClipboardWatcher.BURST_DURATION + 5000);
+        } finally {
+            watcher.stop();
+        }
+        final List<Long> delays = source.delays();
+        final List<Long> nanos = source.nanos();
+
+        // 最初の監視は即時、変更を検出した後はBURST_DELAYが続き、その後は上限まで倍々に延びる
+        assertEquals(0, delays.get(0));
+        int burstEnd = 1;
+        while (delays.get(burstEnd) == ClipboardWatcher.BURST_DELAY) {
+            burstEnd++;
+        }
+        assertEquals(List.of(100L, 200L, 400L, 800L, 800L), delays.subList(burstEnd, burstEnd + 5));
+
+        final int burstTicks = burstEnd - 1;
+        assertTrue(burstTicks <= ClipboardWatcher.BURST_DURATION / ClipboardWatcher.BURST_DELAY + 1,
+                "バースト中の監視が多すぎる: " + burstTicks);
+        assertTrue(burstTicks >= ClipboardWatcher.BURST_DURATION / ClipboardWatcher.BURST_DELAY / 2,
+                "バースト中の監視が少なすぎる: " + burstTicks);
+        final long burstMillis =
+                TimeUnit.NANOSECONDS.toMillis(nanos.get(burstEnd - 1) - nanos.get(0));
+        assertTrue(burstMillis >= ClipboardWatcher.BURST_DURATION - 2 * ClipboardWatcher.BURST_DELAY
+                        && burstMillis <= ClipboardWatcher.BURST_DURATION + SLACK_MILLIS,
+                "バーストの長さ: " + burstMillis + "ms");
+
+        // 予約した間隔より早く監視しない
+        for (int i = 1; i < nanos.size(); i++) {
+            final long intervalMillis = TimeUnit.NANOSECONDS.toMillis(nanos.get(i) - nanos.get(i - 1));
+            assertTrue(intervalMillis >= delays.get(i) - 1,
+                    "間隔が短い: " + i + " " + intervalMillis + "ms < " + delays.get(i) + "ms");
+        }
+    }
+
+    @Test
+    void callbackFailureDoesNotStopPolling() throws Exception {
+        final ScriptedClipboardSource source = new ScriptedClipboardSource()
+                .add(0, MD5_A)
+                .add(300, MD5_B);
+        final ClipboardWatcher watcher = new ClipboardWatcher(source, 100, 400);
+        final AtomicInteger callCount = new AtomicInteger();
+        final CountDownLatch secondUpdate = new CountDownLatch(1);
+        watcher.setCallback(update -> {
+            if (callCount.incrementAndGet() == 1) {
+                throw new IllegalArgumentException("callback failure");
+            }
+            secondUpdate.countDown();
+        });
+        watcher.start();
+        try {
+            assertTrue(secondUpdate.await(5, TimeUnit.SECONDS), "監視が止まった");
+            // 回数は通知の後に数えられる
+            awaitCondition(() -> watcher.getChangeCount() == 2);
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void stopLetsRunningCallbackFinishWithoutInterrupt() throws Exception {
+        final ScriptedClipboardSource source = new ScriptedClipboardSource().add(0, MD5_A);
+        final ClipboardWatcher watcher = new ClipboardWatcher(source, 100, 100);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicBoolean isInterrupted = new AtomicBoolean();
+        watcher.setCallback(update -> {
+            entered.countDown();
+            try {
+                // 楽曲データの取得を待っている状態
+                release.await();
+            } catch (InterruptedException e) {
+                isInterrupted.set(true);
+            }
+            finished.countDown();
+        });
+        watcher.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        watcher.stop();
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertFalse(isInterrupted.get());
+
+        // 実行中の監視は数えられるが、停止後は次の監視が予約されない
+        awaitCondition(() -> watcher.getTickCount() == 1);
+        Thread.sleep(300);
+        assertEquals(1, watcher.getTickCount());
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        awaitCondition(condition, 5000);
+    }
+
+    private static void awaitCondition(BooleanSupplier condition, long timeoutMillis)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "条件を満たさないまま時間切れになった");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * 監視ごとに、その監視を予約した時の間隔と時刻を記録する取得元
+     */
+    private static final class RecordingSource implements ClipboardSource {
+        private final ScriptedClipboardSource script;
+        private final List<Long> delays = new ArrayList<>();
+        private final List<Long> nanos = new ArrayList<>();
+        private volatile ClipboardWatcher watcher;
+
+        RecordingSource(ScriptedClipboardSource script) {
+            this.script = script;
+        }
+
+        @Override
+        public synchronized Transferable getContents() {
+            // 次の監視の間隔は監視の後に更新されるので、この時点ではこの監視を予約した間隔
+            delays.add(watcher.getCurrentDelay());
+            nanos.add(System.nanoTime());
+            return script.getContents();
+        }
+
+        synchronized List<Long> delays() {
+            return List.copyOf(delays);
+        }
+
+        synchronized List<Long> nanos() {
+            return List.copyOf(nanos);
+        }
+    }
+
+    /**
+     * 文字列として取得された回数を数える内容
+     */
+    private static final class CountingTransferable implements Transferable {
+        private final StringSelection delegate;
+        private final AtomicInteger stringReadCount = new AtomicInteger();
+
+        CountingTransferable(String text) {
+            delegate = new StringSelection(text);
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return delegate.getTransferDataFlavors();
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor flavor) {
+            return delegate.isDataFlavorSupported(flavor);
+        }
+
+        @Override
+        public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException, IOException {
+            if (DataFlavor.stringFlavor.equals(flavor)) {
+                stringReadCount.incrementAndGet();
+            }
+            return delegate.getTransferData(flavor);
+        }
+    }
+}
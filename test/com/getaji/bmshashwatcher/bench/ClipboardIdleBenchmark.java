@@ -0,0 +1,108 @@
+package com.getaji.bmshashwatcher.bench;
+
+import com.getaji.bmshashwatcher.ClipboardWatcher;
+import com.getaji.bmshashwatcher.ScriptedClipboardSource;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 内容が変わらない間のClipboardWatcherの監視1回あたりの確保量とCPU時間を計測する
+ * 内容はシステムのクリップボードと同じく、取得するたびにバイト列から読み直す形式で用意する
+ * <p>
+ * 実行例: java -cp out:test-out com.getaji.bmshashwatcher.bench.ClipboardIdleBenchmark [秒数]
+ */
+public final class ClipboardIdleBenchmark {
+    private static final int[] TEXT_SIZES = {4 * 1024, 256 * 1024, 4 * 1024 * 1024};
+    private static final long DELAY = 100;
+
+    private ClipboardIdleBenchmark() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final long measureMillis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 3000;
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.out.printf("%10s %8s %14s %12s%n", "text", "ticks", "bytes/tick", "cpu us/tick");
+        for (final int size : TEXT_SIZES) {
+            final ScriptedClipboardSource source =
+                    new ScriptedClipboardSource().add(0, new TextAndHtml(size));
+            final ClipboardWatcher watcher = new ClipboardWatcher(source, DELAY, DELAY);
+            watcher.start();
+            try {
+                // 最初の検出とバーストの間は除く
+                Thread.sleep(ClipboardWatcher.BURST_DURATION + 2 * DELAY);
+                final Thread thread = findWatcherThread();
+                final long ticks = watcher.getTickCount();
+                final long bytes = threads.getThreadAllocatedBytes(thread.getId());
+                final long cpu = threads.getThreadCpuTime(thread.getId());
+                Thread.sleep(measureMillis);
+                final long tickDelta = watcher.getTickCount() - ticks;
+                final long byteDelta = threads.getThreadAllocatedBytes(thread.getId()) - bytes;
+                final long cpuDelta = threads.getThreadCpuTime(thread.getId()) - cpu;
+                if (watcher.getChangeCount() != 1) {
+                    throw new IllegalStateException("内容が変わっていないのに変更を検出した");
+                }
+                System.out.printf("%10d %8d %14d %12d%n", size, tickDelta,
+                        byteDelta / Math.max(1, tickDelta), cpuDelta / 1000 / Math.max(1, tickDelta));
+            } finally {
+                watcher.stop();
+            }
+        }
+    }
+
+    private static Thread findWatcherThread() {
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("ClipboardWatcher") && thread.isAlive()) return thread;
+        }
+        throw new IllegalStateException("ClipboardWatcher thread not found");
+    }
+
+    /**
+     * ハッシュを含むテキストとHTMLを、UTF-8のバイト列から毎回読み直して渡す内容
+     */
+    private static final class TextAndHtml implements Transferable {
+        private final DataFlavor textFlavor;
+        private final DataFlavor htmlFlavor;
+        private final byte[] text;
+        private final byte[] html;
+
+        TextAndHtml(int size) throws ClassNotFoundException {
+            textFlavor = new DataFlavor("text/plain;charset=UTF-8;class=java.io.InputStream");
+            htmlFlavor = new DataFlavor("text/html;charset=UTF-8;class=java.io.InputStream");
+            final StringBuilder builder = new StringBuilder(size);
+            int i = 0;
+            while (builder.length() < size) {
+                builder.append(String.format("%032x", i++)).append(" song title\n");
+            }
+            text = builder.toString().getBytes(StandardCharsets.UTF_8);
+            html = ("<pre>" + builder + "</pre>").getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return new DataFlavor[]{DataFlavor.stringFlavor, textFlavor, htmlFlavor};
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor flavor) {
+            return DataFlavor.stringFlavor.equals(flavor) || textFlavor.equals(flavor)
+                    || htmlFlavor.equals(flavor);
+        }
+
+        @Override
+        public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+            if (DataFlavor.stringFlavor.equals(flavor)) {
+                return new String(text, StandardCharsets.UTF_8);
+            }
+            if (textFlavor.equals(flavor)) return new ByteArrayInputStream(text);
+            if (htmlFlavor.equals(flavor)) return new ByteArrayInputStream(html);
+            throw new UnsupportedFlavorException(flavor);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.getaji.bmshashwatcher.bench;
+
+import com.getaji.bmshashwatcher.lib.HashChecker;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+
+/**
+ * 難易度表のダンプを模した文字列で、PATTERN_PARTの正規表現とHashChecker.scanHashPartsの走査を比べる
+ * 一致した部分は正規表現と同じ件数になることを確かめてから計測する
+ * vectorモジュールを含めて --add-modules jdk.incubator.vector で実行した場合、
+ * VECTOR_SCAN_THRESHOLD以上の入力はVector APIで走査される
+ * <p>
+ * 実行例: java -cp out:test-out com.getaji.bmshashwatcher.bench.HashScanBenchmark [MiB]
+ */
+public final class HashScanBenchmark {
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    private HashScanBenchmark() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    public static void main(String[] args) {
+        final int mebibytes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final String dump = createDump(mebibytes * 1024 * 1024);
+        System.out.printf("input=%d chars, jdk.incubator.vector=%s%n", dump.length(),
+                ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+
+        final int expected = countByRegex(dump);
+        if (countByScanner(dump) != expected || HashChecker.getHashPartAll(dump).size() != expected) {
+            throw new IllegalStateException("正規表現と件数が一致しない");
+        }
+        measure("regex (find + group)", dump, HashScanBenchmark::listByRegex);
+        measure("getHashPartAll", dump, s -> HashChecker.getHashPartAll(s).size());
+        measure("scanHashParts", dump, HashScanBenchmark::countByScanner);
+    }
+
+    private static void measure(String name, String dump, ToIntFunction<String> task) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int hits = 0;
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            hits += task.applyAsInt(dump);
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        final long bytes = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            final long start = System.nanoTime();
+            hits += task.applyAsInt(dump);
+            final long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        final long allocated = (threads.getCurrentThreadAllocatedBytes() - bytes) / MEASURED_RUNS;
+        System.out.printf("%-22s best=%7.1fms mean=%7.1fms alloc=%,12d B/run (hits=%d)%n", name,
+                best / 1e6, total / 1e6 / MEASURED_RUNS, allocated, hits / (WARMUP_RUNS + MEASURED_RUNS));
+    }
+
+    private static int countByRegex(String s) {
+        final Matcher matcher = HashChecker.PATTERN_PART.matcher(s);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 置き換える前のgetHashPartAllと同じ処理
+     */
+    private static int listByRegex(String s) {
+        final Matcher matcher = HashChecker.PATTERN_PART.matcher(s);
+        final List<String> parts = new ArrayList<>();
+        while (matcher.find()) {
+            parts.add(matcher.group());
+        }
+        return parts.size();
+    }
+
+    private static int countByScanner(String s) {
+        return HashChecker.scanHashParts(s, (offset, length, hashType) -> {
+        });
+    }
+
+    /**
+     * 楽曲ごとにMD5、SHA-256、リンク、タイトルを持つJSONを作成する
+     */
+    private static String createDump(int size) {
+        final Random random = new Random(1);
+        final StringBuilder builder = new StringBuilder(size + 512);
+        builder.append('[');
+        int i = 0;
+        while (builder.length() < size) {
+            builder.append("{\"level\":\"").append(random.nextInt(25))
+                    .append("\",\"md5\":\"").append(SyntheticSongDatabase.md5(i))
+                    .append("\",\"sha256\":\"").append(SyntheticSongDatabase.sha256(i))
+                    .append("\",\"title\":\"song ").append(i).append(" [").append(Integer.toHexString(i))
+                    .append("]\",\"url\":\"https://example.com/bms/score.php?md5=")
+                    .append(SyntheticSongDatabase.md5(i + 1)).append("\",\"comment\":\"deadbeef cafe\"},\n");
+            i++;
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,95 @@
+package com.getaji.bmshashwatcher.bench;
+
+import com.getaji.bmshashwatcher.db.BeatorajaSongDataAccessor;
+import com.getaji.bmshashwatcher.db.SongDataAccessor;
+import com.getaji.bmshashwatcher.model.Config;
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 高速読み込みモード（fastSongDataRead、immutableSongDataRead）ごとに、
+ * SyntheticSongDatabaseで作成したsongdata.dbの単一のMD5の検索の遅延を計測する
+ * <ul>
+ *     <li>cold: 開いた直後の300回（OSのページキャッシュを破棄してから実行する。
+ *     Linuxなら sync; echo 3 &gt; /proc/sys/vm/drop_caches）</li>
+ *     <li>warm: 10万回検索した後の10万回</li>
+ * </ul>
+ * 接続の状態が残らないように、組み合わせごとに新しいJVMで実行する
+ * <p>
+ * 実行例: java -cp out:test-out:sqlite-jdbc.jar com.getaji.bmshashwatcher.bench.SongDataReadBenchmark bench fast cold
+ * （SyntheticSongDatabaseを既定以外の件数で作成した場合は4番目の引数で件数を指定する）
+ */
+public final class SongDataReadBenchmark {
+    private static final int COLD_LOOKUPS = 300;
+    private static final int WARM_LOOKUPS = 100000;
+
+    private SongDataReadBenchmark() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("usage: SongDataReadBenchmark <dir> normal|fast|immutable cold|warm [songs]");
+            System.exit(2);
+        }
+        final String mode = args[1];
+        final boolean isCold = args[2].equals("cold");
+        final Config config = new Config();
+        config.setBeatorajaPath(args[0]);
+        config.setFastSongDataRead(!mode.equals("normal"));
+        config.setImmutableSongDataRead(mode.equals("immutable"));
+        // ページをキャッシュに載せないように、件数は数えずに作成時の値を使う
+        final int songCount = args.length > 3 ? Integer.parseInt(args[3]) :
+                SyntheticSongDatabase.DEFAULT_COUNT;
+
+        final BeatorajaSongDataAccessor accessor = new BeatorajaSongDataAccessor();
+        long start = System.nanoTime();
+        accessor.open(config);
+        final double openMillis = (System.nanoTime() - start) / 1e6;
+        try {
+            final Random random = new Random(42);
+            if (!isCold) {
+                for (int i = 0; i < WARM_LOOKUPS; i++) {
+                    accessor.findBMSByMD5(Md5Key.parse(
+                            SyntheticSongDatabase.md5(random.nextInt(songCount))));
+                }
+            }
+            final int lookups = isCold ? COLD_LOOKUPS : WARM_LOOKUPS;
+            // 半分は存在しないハッシュ
+            final Md5Key[] keys = new Md5Key[lookups];
+            for (int i = 0; i < lookups; i++) {
+                keys[i] = Md5Key.parse(SyntheticSongDatabase.md5(random.nextInt(songCount * 2)));
+            }
+            final long[] latencies = new long[lookups];
+            for (int i = 0; i < lookups; i++) {
+                final long lookupStart = System.nanoTime();
+                accessor.findBMSByMD5(keys[i]);
+                latencies[i] = System.nanoTime() - lookupStart;
+            }
+
+            final List<SongDataAccessor.Request> requests = new ArrayList<>();
+            for (int i = 0; i < 512; i++) {
+                final int song = random.nextInt(songCount * 2);
+                requests.add(new SongDataAccessor.Request(random.nextBoolean() ?
+                        Md5Key.parse(SyntheticSongDatabase.md5(song)) :
+                        Sha256Key.parse(SyntheticSongDatabase.sha256(song))));
+            }
+            start = System.nanoTime();
+            accessor.findAll(requests);
+            final double findAllMillis = (System.nanoTime() - start) / 1e6;
+
+            final double mean = Arrays.stream(latencies).average().orElse(0) / 1e3;
+            Arrays.sort(latencies);
+            System.out.printf("%-9s %-4s open=%6.1fms single mean=%7.1fus p50=%6.1fus " +
+                            "p99=%7.1fus findAll(512)=%6.1fms%n", mode, args[2], openMillis, mean,
+                    latencies[lookups / 2] / 1e3, latencies[lookups * 99 / 100] / 1e3, findAllMillis);
+        } finally {
+            accessor.close();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.getaji.bmshashwatcher.bench;
+
+import com.getaji.bmshashwatcher.db.BeatorajaSongDataAccessor;
+import com.getaji.bmshashwatcher.db.LR2SongDataAccessor;
+import com.getaji.bmshashwatcher.db.SongDataAccessor;
+import com.getaji.bmshashwatcher.model.Config;
+import com.getaji.bmshashwatcher.model.HashKey;
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
+import org.sqlite.SQLiteConfig;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 検索のたびにPreparedStatementを作る場合（キャッシュする前の実装と同じSQL）と、
+ * アクセサの文のキャッシュとINリストの大きさの丸めを使う場合の、遅延と確保量を比べる
+ * SyntheticSongDatabaseで作成したデータベースを使う
+ * <p>
+ * 実行例: java -cp out:test-out:sqlite-jdbc.jar com.getaji.bmshashwatcher.bench.StatementCacheBenchmark bench
+ */
+public final class StatementCacheBenchmark {
+    private static final int SINGLE_LOOKUPS = 20000;
+    private static final int BATCHES = 2000;
+    private static final int MAX_BATCH_SIZE = 40;
+    private static final int ROUNDS = 3;
+
+    private StatementCacheBenchmark() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String dir = args.length > 0 ? args[0] : "bench";
+        final int songCount = args.length > 1 ? Integer.parseInt(args[1]) :
+                SyntheticSongDatabase.DEFAULT_COUNT;
+        final Config config = new Config();
+        config.setBeatorajaPath(dir);
+        config.setLr2Path(dir);
+        for (final SongDataAccessor accessor : List.of(new BeatorajaSongDataAccessor(),
+                new LR2SongDataAccessor())) {
+            final boolean isLR2 = accessor instanceof LR2SongDataAccessor;
+            final String name = accessor.getClass().getSimpleName();
+            accessor.open(config);
+            try (final Connection connection = openReadOnly(accessor, config)) {
+                final Lookup uncached = isLR2 ? new UncachedLR2(connection) :
+                        new UncachedBeatoraja(connection);
+                final Lookup cached = new Lookup() {
+                    @Override
+                    public void find(Md5Key md5) throws SQLException {
+                        accessor.findBMSByMD5(md5);
+                    }
+
+                    @Override
+                    public void findAll(List<SongDataAccessor.Request> requests) throws SQLException {
+                        accessor.findAll(requests);
+                    }
+                };
+                // 最後の回だけ表示する（JITとページキャッシュが落ち着くまで）
+                for (int round = 0; round < ROUNDS; round++) {
+                    final boolean isPrinted = round == ROUNDS - 1;
+                    run(name + " prepare each", uncached, isLR2, songCount, isPrinted);
+                    run(name + " cached", cached, isLR2, songCount, isPrinted);
+                }
+            } finally {
+                accessor.close();
+            }
+        }
+    }
+
+    private static void run(String name, Lookup lookup, boolean isMD5Only, int songCount,
+                            boolean isPrinted) throws SQLException {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final Random random = new Random(42);
+        final Md5Key[] keys = new Md5Key[SINGLE_LOOKUPS];
+        for (int i = 0; i < SINGLE_LOOKUPS; i++) {
+            keys[i] = Md5Key.parse(SyntheticSongDatabase.md5(random.nextInt(songCount)));
+        }
+        final List<List<SongDataAccessor.Request>> batches = new ArrayList<>();
+        for (int i = 0; i < BATCHES; i++) {
+            final List<SongDataAccessor.Request> requests = new ArrayList<>();
+            final int size = 1 + random.nextInt(MAX_BATCH_SIZE);
+            for (int j = 0; j < size; j++) {
+                final int song = random.nextInt(songCount);
+                requests.add(new SongDataAccessor.Request(isMD5Only || j % 2 == 0 ?
+                        Md5Key.parse(SyntheticSongDatabase.md5(song)) :
+                        Sha256Key.parse(SyntheticSongDatabase.sha256(song))));
+            }
+            batches.add(requests);
+        }
+
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (final Md5Key key : keys) {
+            lookup.find(key);
+        }
+        final long singleNanos = System.nanoTime() - start;
+        final long singleBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+        bytes = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for (final List<SongDataAccessor.Request> requests : batches) {
+            lookup.findAll(requests);
+        }
+        final long batchNanos = System.nanoTime() - start;
+        final long batchBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+        if (isPrinted) {
+            System.out.printf("%-40s single: %6.1fus %6d B | findAll(1-%d): %7.1fus %7d B%n", name,
+                    singleNanos / 1e3 / SINGLE_LOOKUPS, singleBytes / SINGLE_LOOKUPS, MAX_BATCH_SIZE,
+                    batchNanos / 1e3 / BATCHES, batchBytes / BATCHES);
+        }
+    }
+
+    private static Connection openReadOnly(SongDataAccessor accessor, Config config)
+            throws SQLException {
+        final SQLiteConfig sqliteConfig = new SQLiteConfig();
+        sqliteConfig.setReadOnly(true);
+        return DriverManager.getConnection("jdbc:sqlite:" + accessor.getDatabasePath(config),
+                sqliteConfig.toProperties());
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private interface Lookup {
+        void find(Md5Key md5) throws SQLException;
+
+        void findAll(List<SongDataAccessor.Request> requests) throws SQLException;
+    }
+
+    /**
+     * 検索のたびに文を作り、INリストをリクエストの数に合わせるbeatorajaの検索
+     */
+    private record UncachedBeatoraja(Connection connection) implements Lookup {
+        @Override
+        public void find(Md5Key md5) throws SQLException {
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "SELECT md5, sha256, title, subtitle FROM song WHERE md5 = ? LIMIT 1")) {
+                statement.setString(1, md5.toHex());
+                readRows(statement, 4);
+            }
+        }
+
+        @Override
+        public void findAll(List<SongDataAccessor.Request> requests) throws SQLException {
+            final List<String> md5List = new ArrayList<>();
+            final List<String> sha256List = new ArrayList<>();
+            for (final SongDataAccessor.Request request : requests) {
+                final HashKey hash = request.hash();
+                (hash instanceof Md5Key ? md5List : sha256List).add(hash.toHex());
+            }
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "SELECT DISTINCT md5, sha256, title, subtitle FROM song WHERE md5 IN (" +
+                            placeholders(md5List.size()) + ") OR sha256 IN (" +
+                            placeholders(sha256List.size()) + ")")) {
+                int index = 1;
+                for (final String md5 : md5List) {
+                    statement.setString(index++, md5);
+                }
+                for (final String sha256 : sha256List) {
+                    statement.setString(index++, sha256);
+                }
+                readRows(statement, 4);
+            }
+        }
+    }
+
+    /**
+     * 検索のたびに文を作り、INリストをリクエストの数に合わせるLR2の検索
+     */
+    private record UncachedLR2(Connection connection) implements Lookup {
+        @Override
+        public void find(Md5Key md5) throws SQLException {
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "SELECT hash, title, subtitle FROM song WHERE hash = ? LIMIT 1")) {
+                statement.setString(1, md5.toHex());
+                readRows(statement, 3);
+            }
+        }
+
+        @Override
+        public void findAll(List<SongDataAccessor.Request> requests) throws SQLException {
+            try (final PreparedStatement statement = connection.prepareStatement(
+                    "SELECT DISTINCT hash, title, subtitle FROM song WHERE hash IN (" +
+                            placeholders(requests.size()) + ")")) {
+                for (int i = 0; i < requests.size(); i++) {
+                    statement.setString(i + 1, requests.get(i).hash().toHex());
+                }
+                readRows(statement, 3);
+            }
+        }
+    }
+
+    private static void readRows(PreparedStatement statement, int columns) throws SQLException {
+        try (final ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    resultSet.getString(i);
+                }
+            }
+        }
+    }
+}
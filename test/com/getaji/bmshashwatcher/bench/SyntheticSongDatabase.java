@@ -0,0 +1,140 @@
+package com.getaji.bmshashwatcher.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * ベンチマーク用に、beatorajaのsongdata.dbとLR2のsong.dbを模したデータベースを作成する
+ * 楽曲のハッシュは番号から決まるので、md5とsha256で同じ楽曲を検索できる
+ * 番号が件数以上のハッシュは存在しないので、0から件数の2倍までの番号を検索すると半分が見つかる
+ * <p>
+ * 実行例: java -cp out:test-out:sqlite-jdbc.jar com.getaji.bmshashwatcher.bench.SyntheticSongDatabase bench 200000
+ * （bench/songdata.dbとbench/LR2files/Database/song.dbを作り直す）
+ */
+public final class SyntheticSongDatabase {
+    public static final int DEFAULT_COUNT = 200000;
+
+    private SyntheticSongDatabase() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Path dir = Path.of(args.length > 0 ? args[0] : "bench");
+        final int count = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_COUNT;
+        final long start = System.nanoTime();
+        createBeatoraja(dir.resolve("songdata.db"), count);
+        createLR2(dir.resolve("LR2files/Database/song.db"), count);
+        System.out.printf("%d songs in %s (%.1fs)%n", count, dir.toAbsolutePath(),
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * 番号に対応するMD5（16進数）
+     */
+    public static String md5(int i) {
+        return String.format("%032x", (long) i * 2654435761L);
+    }
+
+    /**
+     * 番号に対応するSHA-256（16進数）
+     */
+    public static String sha256(int i) {
+        return String.format("%064x", (long) i * 40503L + 7);
+    }
+
+    /**
+     * beatorajaの列を揃えたsongdata.dbを作成する（既にあれば作り直す）
+     *
+     * @param path  ファイルのパス
+     * @param count 楽曲数
+     */
+    public static void createBeatoraja(Path path, int count) throws Exception {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.deleteIfExists(path);
+        final Random random = new Random(1);
+        try (final Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+            connection.setAutoCommit(false);
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("""
+                        CREATE TABLE song(md5 TEXT NOT NULL, sha256 TEXT NOT NULL, title TEXT,
+                        subtitle TEXT, genre TEXT, artist TEXT, subartist TEXT, tag TEXT, path TEXT,
+                        folder TEXT, stagefile TEXT, banner TEXT, backbmp TEXT, preview TEXT,
+                        parent TEXT, level INTEGER, difficulty INTEGER, maxbpm INTEGER,
+                        minbpm INTEGER, length INTEGER, mode INTEGER, judge INTEGER,
+                        feature INTEGER, content INTEGER, date INTEGER, favorite INTEGER,
+                        adddate INTEGER, notes INTEGER, charthash TEXT, PRIMARY KEY(sha256, path))""");
+                statement.execute("CREATE INDEX idx_md5 ON song(md5)");
+            }
+            try (final PreparedStatement insert = connection.prepareStatement("""
+                    INSERT INTO song(md5, sha256, title, subtitle, genre, artist, subartist, tag,
+                    path, folder, stagefile, banner, backbmp, preview, parent, level, notes,
+                    charthash) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)""")) {
+                for (int i = 0; i < count; i++) {
+                    insert.setString(1, md5(i));
+                    insert.setString(2, sha256(i));
+                    insert.setString(3, "title " + i + " ".repeat(random.nextInt(30)));
+                    insert.setString(4, i % 3 == 0 ? "[ANOTHER]" : "");
+                    insert.setString(5, "GENRE " + random.nextInt(500));
+                    insert.setString(6, "artist " + random.nextInt(5000) + " obj. someone");
+                    insert.setString(7, "");
+                    insert.setString(8, "");
+                    insert.setString(9, "C:\\BMS\\pack" + (i / 50) + "\\song" + i + "\\_" + i + ".bms");
+                    insert.setString(10, md5(i / 7));
+                    insert.setString(11, "stage.png");
+                    insert.setString(12, "banner.png");
+                    insert.setString(13, "");
+                    insert.setString(14, "preview.ogg");
+                    insert.setString(15, md5(i / 5));
+                    insert.setInt(16, random.nextInt(12));
+                    insert.setInt(17, 500 + random.nextInt(3000));
+                    insert.setString(18, sha256(i + 1));
+                    insert.addBatch();
+                    if (i % 10000 == 0) insert.executeBatch();
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+    /**
+     * LR2の列を揃えたsong.dbを作成する（既にあれば作り直す）
+     *
+     * @param path  ファイルのパス
+     * @param count 楽曲数
+     */
+    public static void createLR2(Path path, int count) throws Exception {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.deleteIfExists(path);
+        try (final Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+            connection.setAutoCommit(false);
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE song(hash TEXT, title TEXT, subtitle TEXT, " +
+                        "path TEXT PRIMARY KEY)");
+                statement.execute("CREATE INDEX idx_hash ON song(hash)");
+            }
+            try (final PreparedStatement insert =
+                         connection.prepareStatement("INSERT INTO song VALUES(?, ?, ?, ?)")) {
+                for (int i = 0; i < count; i++) {
+                    insert.setString(1, md5(i));
+                    insert.setString(2, "title " + i);
+                    insert.setString(3, i % 3 == 0 ? "[ANOTHER]" : "");
+                    insert.setString(4, "C:\\BMS\\pack" + (i / 50) + "\\song" + i + "\\_" + i + ".bms");
+                    insert.addBatch();
+                    if (i % 10000 == 0) insert.executeBatch();
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
+import com.getaji.bmshashwatcher.model.SongData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HashCrossReferenceがセッションの世代が変わった時に古い対応を返さないかを確かめる
+ */
+class HashCrossReferenceTest {
+    private static final SongData SONG = new SongData(new Md5Key(1, 2),
+            new Sha256Key(3, 4, 5, 6), "title", "");
+
+    @Test
+    void forgetsPairsWhenGenerationChanges() {
+        final HashCrossReference crossReference = new HashCrossReference();
+        crossReference.validate(1);
+        crossReference.learnAll(List.of(new SongDataAccessor.Result(SONG.md5(), SONG)), 1);
+        assertEquals(SONG, crossReference.find(SONG.sha256()));
+
+        crossReference.validate(1);
+        assertEquals(SONG, crossReference.find(SONG.md5()));
+
+        crossReference.validate(2);
+        assertNull(crossReference.find(SONG.md5()));
+        assertNull(crossReference.find(SONG.sha256()));
+        assertEquals(1, crossReference.getStats().invalidationCount());
+    }
+
+    @Test
+    void ignoresResultsSearchedBeforeGenerationChanged() {
+        final HashCrossReference crossReference = new HashCrossReference();
+        crossReference.validate(1);
+        // 検索している間に開き直された場合
+        crossReference.validate(2);
+        crossReference.learnAll(List.of(new SongDataAccessor.Result(SONG.md5(), SONG)), 1);
+        assertNull(crossReference.find(SONG.sha256()));
+        assertEquals(0, crossReference.getStats().keyCount());
+    }
+}
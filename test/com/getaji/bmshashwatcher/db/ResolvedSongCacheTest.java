@@ -0,0 +1,147 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.Md5Key;
+import com.getaji.bmshashwatcher.model.Sha256Key;
+import com.getaji.bmshashwatcher.model.SongData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ResolvedSongCacheのファイルの拡張、配置し直す途中の終了、壊れたヘッダからの復旧を確かめる
+ */
+class ResolvedSongCacheTest {
+    // ヘッダのオフセット（ResolvedSongCacheと同じ）
+    private static final int TABLE_CAPACITY_OFFSET = 8;
+    private static final int RECORD_COUNT_OFFSET = 12;
+    private static final int TEXT_SIZE_OFFSET = 16;
+    private static final int STATE_OFFSET = 24;
+    private static final int STATE_REBUILDING = 1;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void growsAndKeepsRecordsAcrossReopen() throws IOException {
+        final Path path = tempDir.resolve(ResolvedSongCache.DEFAULT_FILE_NAME);
+        // 最初の容量（レコード2048件、文字列128KiB）を両方超える件数
+        final int count = 5000;
+        final long initialSize;
+        try (final ResolvedSongCache cache = ResolvedSongCache.open(path)) {
+            initialSize = cache.getFileSize();
+            for (int i = 0; i < count; i++) {
+                cache.put(song(i, "title" + "-".repeat(40) + i));
+            }
+            assertEquals(count, cache.size());
+            assertTrue(cache.getFileSize() > initialSize);
+        }
+        try (final ResolvedSongCache cache = ResolvedSongCache.open(path)) {
+            assertEquals(count, cache.size());
+            for (int i = 0; i < count; i++) {
+                final SongData expected = song(i, "title" + "-".repeat(40) + i);
+                assertEquals(expected, cache.find(expected.md5()));
+                assertEquals(expected, cache.find(expected.sha256()));
+            }
+            assertNull(cache.find(new Md5Key(-1, -1)));
+        }
+    }
+
+    @Test
+    void renamedSongReplacesOldRecord() throws IOException {
+        final Path path = tempDir.resolve(ResolvedSongCache.DEFAULT_FILE_NAME);
+        try (final ResolvedSongCache cache = ResolvedSongCache.open(path)) {
+            cache.put(song(1, "old"));
+            cache.put(song(1, "old"));
+            assertEquals(1, cache.size());
+            cache.put(song(1, "new"));
+            assertEquals(2, cache.size());
+            assertEquals("new", cache.find(new Md5Key(1, 1)).title());
+        }
+        try (final ResolvedSongCache cache = ResolvedSongCache.open(path)) {
+            assertEquals("new", cache.find(new Sha256Key(1, 1, 1, 1)).title());
+        }
+    }
+
+    @Test
+    void interruptedRebuildResetsCache() throws IOException {
+        final Path path = createCache();
+        writeHeaderInt(path, STATE_OFFSET, STATE_REBUILDING);
+        assertReset(path);
+    }
+
+    @Test
+    void recordCountOutOfRangeResetsCache() throws IOException {
+        final Path path = createCache();
+        final int capacity = readHeaderInt(path, TABLE_CAPACITY_OFFSET);
+        writeHeaderInt(path, RECORD_COUNT_OFFSET, capacity / 2 + 1);
+        assertReset(path);
+    }
+
+    @Test
+    void negativeRecordCountResetsCache() throws IOException {
+        final Path path = createCache();
+        writeHeaderInt(path, RECORD_COUNT_OFFSET, -1);
+        assertReset(path);
+    }
+
+    @Test
+    void textSizeOutOfRangeResetsCache() throws IOException {
+        final Path path = createCache();
+        writeHeaderInt(path, TEXT_SIZE_OFFSET, Integer.MAX_VALUE);
+        assertReset(path);
+    }
+
+    @Test
+    void truncatedFileResetsCache() throws IOException {
+        final Path path = createCache();
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+        assertReset(path);
+    }
+
+    private Path createCache() throws IOException {
+        final Path path = tempDir.resolve(ResolvedSongCache.DEFAULT_FILE_NAME);
+        try (final ResolvedSongCache cache = ResolvedSongCache.open(path)) {
+            for (int i = 0; i < 10; i++) {
+                cache.put(song(i, "title" + i));
+            }
+        }
+        return path;
+    }
+
+    private static void assertReset(Path path) throws IOException {
+        try (final ResolvedSongCache cache = ResolvedSongCache.open(path)) {
+            assertEquals(0, cache.size());
+            assertNull(cache.find(new Md5Key(1, 1)));
+            // 作り直した後も使える
+            cache.put(song(1, "title1"));
+            assertEquals(song(1, "title1"), cache.find(new Md5Key(1, 1)));
+        }
+    }
+
+    private static SongData song(int i, String title) {
+        return new SongData(new Md5Key(i, i), new Sha256Key(i, i, i, i), title, "sub" + i);
+    }
+
+    private static int readHeaderInt(Path path, int offset) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(buffer, offset);
+            return buffer.getInt(0);
+        }
+    }
+
+    private static void writeHeaderInt(Path path, int offset, int value) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), offset);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.getaji.bmshashwatcher.db;
+
+import com.getaji.bmshashwatcher.model.*;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SongDataPollerの専用スレッドと優先度付きの待ち行列を、複数のスレッドから同時に使って確かめる
+ */
+class SongDataPollerTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Test
+    void concurrentCallsRunOneAtATimeOnPollerThread() throws Exception {
+        final FakeAccessor accessor = new FakeAccessor();
+        final SongDataPoller poller = new SongDataPoller(accessor, Config::new);
+        final int threadCount = 8;
+        final int iterations = 60;
+        final ExecutorService callers = Executors.newFixedThreadPool(threadCount);
+        final AtomicInteger expectedFound = new AtomicInteger();
+        final AtomicInteger actualFound = new AtomicInteger();
+        final AtomicInteger expectedResults = new AtomicInteger();
+        final AtomicInteger actualResults = new AtomicInteger();
+        final CountDownLatch pending = new CountDownLatch(threadCount * iterations);
+        final AtomicInteger keySequence = new AtomicInteger();
+        for (int t = 0; t < threadCount; t++) {
+            final int seed = t;
+            callers.execute(() -> {
+                final Random random = new Random(seed);
+                for (int i = 0; i < iterations; i++) {
+                    // 覚えた失敗も結果に数えるように、一部は前のハッシュを使い回す
+                    final List<SongDataAccessor.Request> requests =
+                            requests(random.nextInt(120) + 1, keySequence, random);
+                    final int found = (int) requests.stream()
+                            .filter(r -> FakeAccessor.isFound(r.hash())).count();
+                    expectedFound.addAndGet(found);
+                    expectedResults.addAndGet(requests.size());
+                    switch (random.nextInt(4)) {
+                        case 0 -> {
+                            final SongDataAccessor.Request request = requests.get(0);
+                            expectedFound.addAndGet(
+                                    (FakeAccessor.isFound(request.hash()) ? 1 : 0) - found);
+                            expectedResults.addAndGet(1 - requests.size());
+                            poller.poll(request.hash(), result -> {
+                                count(List.of(result), actualFound, actualResults);
+                                pending.countDown();
+                            });
+                        }
+                        case 1 -> {
+                            final List<SongDataAccessor.Result> results =
+                                    poller.pollAll(requests).orElseThrow();
+                            count(results, actualFound, actualResults);
+                            pending.countDown();
+                        }
+                        case 2 -> poller.pollAllAsync(requests,
+                                results -> count(results, actualFound, actualResults),
+                                isSucceeded -> {
+                                    assertTrue(isSucceeded);
+                                    pending.countDown();
+                                });
+                        default -> {
+                            poller.setReconnectRequired(true);
+                            count(poller.pollAll(requests).orElseThrow(),
+                                    actualFound, actualResults);
+                            pending.countDown();
+                        }
+                    }
+                }
+            });
+        }
+        assertTrue(pending.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS), "通知されない呼び出しがある");
+        callers.shutdown();
+
+        assertEquals(0, accessor.overlapCount.get(), "アクセサが同時に使われた");
+        assertEquals(1, accessor.threads.size());
+        assertTrue(accessor.threads.iterator().next().getName().startsWith("SongDataPoller-"));
+        assertEquals(expectedResults.get(), actualResults.get());
+        assertEquals(expectedFound.get(), actualFound.get());
+    }
+
+    @Test
+    void fewerRequestsRunFirst() throws Exception {
+        final FakeAccessor accessor = new FakeAccessor();
+        final SongDataPoller poller = new SongDataPoller(accessor, Config::new);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(4);
+        final AtomicInteger keySequence = new AtomicInteger();
+        final Random random = new Random(5);
+
+        // 最初の処理でスレッドを止めている間に、残りを待ち行列に積む
+        poller.pollAllAsync(requests(1, keySequence, random), results -> {
+            started.countDown();
+            await(release);
+        }, isSucceeded -> finished.countDown());
+        assertTrue(started.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        poller.pollAllAsync(requests(500, keySequence, random), results -> {
+        }, isSucceeded -> {
+            order.add("500");
+            finished.countDown();
+        });
+        poller.pollAllAsync(requests(20, keySequence, random), results -> {
+        }, isSucceeded -> {
+            order.add("20");
+            finished.countDown();
+        });
+        poller.poll(requests(1, keySequence, random).get(0).hash(), result -> {
+            order.add("1");
+            finished.countDown();
+        });
+        release.countDown();
+
+        assertTrue(finished.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        assertEquals(List.of("1", "20", "500"), order);
+    }
+
+    @Test
+    void syncPollAllFromPollerThreadDoesNotDeadlock() {
+        final FakeAccessor accessor = new FakeAccessor();
+        final SongDataPoller poller = new SongDataPoller(accessor, Config::new);
+        final AtomicInteger keySequence = new AtomicInteger();
+        final Random random = new Random(6);
+        final List<SongDataAccessor.Request> nested = requests(30, keySequence, random);
+        final AtomicReference<Optional<List<SongDataAccessor.Result>>> nestedResults =
+                new AtomicReference<>();
+
+        final Boolean isSucceeded = assertTimeoutPreemptively(TIMEOUT, () -> {
+            final CompletableFuture<Boolean> future = new CompletableFuture<>();
+            poller.pollAllAsync(requests(10, keySequence, random),
+                    results -> nestedResults.compareAndSet(null, poller.pollAll(nested)),
+                    future::complete);
+            return future.get();
+        });
+
+        assertTrue(isSucceeded);
+        final List<SongDataAccessor.Result> results = nestedResults.get().orElseThrow();
+        assertEquals(nested.stream().map(SongDataAccessor.Request::hash).toList(),
+                results.stream().map(SongDataAccessor.Result::hash).toList());
+        assertEquals(0, accessor.overlapCount.get());
+    }
+
+    @Test
+    void rememberedMissIsForgottenWhenSessionIsSwappedElsewhere() throws Exception {
+        final FakeAccessor accessor = new FakeAccessor();
+        final SongDataPoller poller = new SongDataPoller(accessor, Config::new);
+        final Md5Key added = new Md5Key(1, 0);
+        assertFalse(FakeAccessor.isFound(added));
+
+        assertNull(pollOne(poller, added).songData());
+        final int queryCount = accessor.queryCount.get();
+        assertNull(pollOne(poller, added).songData());
+        assertEquals(queryCount, accessor.queryCount.get(), "覚えた失敗で検索を省いていない");
+
+        // 楽曲が追加され、SongDatabaseWatcherが別のスレッドで開き直した場合
+        accessor.addedHashes.add(added);
+        accessor.swapSession();
+        assertNotNull(pollOne(poller, added).songData());
+    }
+
+    private static SongDataAccessor.Result pollOne(SongDataPoller poller, HashKey hash)
+            throws Exception {
+        final CompletableFuture<SongDataAccessor.Result> future = new CompletableFuture<>();
+        poller.poll(hash, future::complete);
+        return future.get(TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+    }
+
+    private static List<SongDataAccessor.Request> requests(int count, AtomicInteger keySequence,
+                                                           Random random) {
+        final List<SongDataAccessor.Request> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final int key = random.nextInt(4) == 0 && keySequence.get() > 0 ?
+                    random.nextInt(keySequence.get()) : keySequence.getAndIncrement();
+            requests.add(new SongDataAccessor.Request(new Md5Key(key, key * 31L)));
+        }
+        return requests;
+    }
+
+    private static void count(List<SongDataAccessor.Result> results, AtomicInteger found,
+                              AtomicInteger total) {
+        total.addAndGet(results.size());
+        found.addAndGet((int) results.stream().filter(r -> r.songData() != null).count());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 呼び出されたスレッドと、同時に呼び出された回数を記録するアクセサ
+     * 偶数のハッシュとaddedHashesだけが見つかる
+     */
+    private static class FakeAccessor implements SongDataAccessor {
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger overlapCount = new AtomicInteger();
+        final AtomicInteger queryCount = new AtomicInteger();
+        final Set<HashKey> addedHashes = ConcurrentHashMap.newKeySet();
+        private final AtomicLong generation = new AtomicLong();
+        private volatile boolean isOpen = false;
+
+        static boolean isFound(HashKey hash) {
+            return ((Md5Key) hash).hashCode() % 2 == 0;
+        }
+
+        /**
+         * 別のスレッドで開き直したことにする
+         */
+        void swapSession() {
+            generation.incrementAndGet();
+        }
+
+        private void enter() {
+            threads.add(Thread.currentThread());
+            queryCount.incrementAndGet();
+            if (inFlight.incrementAndGet() != 1) {
+                overlapCount.incrementAndGet();
+            }
+            Thread.yield();
+        }
+
+        private void exit() {
+            inFlight.decrementAndGet();
+        }
+
+        private Result find(HashKey hash) {
+            final Md5Key md5 = (Md5Key) hash;
+            return new Result(hash, isFound(hash) || addedHashes.contains(hash) ?
+                    new SongData(md5, null, "title" + md5.hashCode(), "") : null);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return isOpen;
+        }
+
+        @Override
+        public void open(Config config) {
+            enter();
+            isOpen = true;
+            generation.incrementAndGet();
+            exit();
+        }
+
+        @Override
+        public void close() {
+            enter();
+            isOpen = false;
+            generation.incrementAndGet();
+            exit();
+        }
+
+        @Override
+        public long getSessionGeneration() {
+            return generation.get();
+        }
+
+        @Override
+        public Path getDatabasePath(Config config) {
+            return Path.of("fake-songdata.db");
+        }
+
+        @Override
+        public Result findBMSByMD5(Md5Key hash) {
+            enter();
+            try {
+                return find(hash);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public Result findBMSBySHA256(Sha256Key hash) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Result> findAll(List<Request> hashList) {
+            enter();
+            try {
+                return hashList.stream().map(r -> find(r.hash())).toList();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public int getMaxRequestsPerQuery() {
+            return 50;
+        }
+
+        @Override
+        public SupportedHashType getSupportedHashType() {
+            return SupportedHashType.MD5;
+        }
+
+        @Override
+        public boolean isValidPath(String baseDir) {
+            return true;
+        }
+
+        @Override
+        public boolean isValidPath(Config config) {
+            return true;
+        }
+    }
+}
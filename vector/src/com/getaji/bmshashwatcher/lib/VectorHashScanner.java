@@ -0,0 +1,120 @@
+package com.getaji.bmshashwatcher.lib;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector APIで複数の文字をまとめて16進数かどうか判定し、ハッシュを検出するクラス
+ * jdk.incubator.vectorモジュールが読み込まれている場合のみHashCheckerがリフレクションで読み込む
+ * 本体のソースをフラグなしでコンパイルできるように、このクラスだけ別のモジュール（vector）に置く
+ * 結果はHashChecker.scanHashPartsのスカラー版と完全に同じになる
+ */
+final class VectorHashScanner implements HashChecker.HashPartScanner {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int CHUNK_SIZE = 4096;
+
+    @Override
+    public int scan(CharSequence s, int start, int end, HashChecker.HashPartConsumer consumer) {
+        return scanHashParts(s, start, end, consumer);
+    }
+
+    /**
+     * 与えられた文字列の範囲を走査し、ハッシュの形式に一致する部分を見つけるたびに通知する
+     * 文字列は固定サイズのバッファにチャンクごとに複写してから判定する
+     *
+     * @param s        文字列
+     * @param start    走査を開始する位置
+     * @param end      走査を終了する位置（この位置は含まない）
+     * @param consumer 一致した部分の通知先
+     * @return 一致した部分の件数
+     */
+    static int scanHashParts(CharSequence s, int start, int end,
+                             HashChecker.HashPartConsumer consumer) {
+        final char[] buffer = new char[CHUNK_SIZE];
+        int count = 0;
+        // 走査中の16進数の連続の開始位置（連続の外なら-1）
+        int runStart = -1;
+
+        for (int chunkStart = start; chunkStart < end; chunkStart += CHUNK_SIZE) {
+            final int chunkLength = Math.min(CHUNK_SIZE, end - chunkStart);
+            copyChars(s, chunkStart, chunkStart + chunkLength, buffer);
+
+            final int vectorBound = chunkLength - chunkLength % LANES;
+            int i = 0;
+            for (; i < vectorBound; i += LANES) {
+                final long hexBits = classify(buffer, i);
+                // 連続の途中で全レーンが16進数、または連続の外で全レーンが非16進数なら境界はない
+                if (runStart >= 0 ? hexBits == allLanesMask() : hexBits == 0) continue;
+
+                final int base = chunkStart + i;
+                long bits = hexBits;
+                int lane = 0;
+                while (lane < LANES) {
+                    if (runStart < 0) {
+                        // 次の16進数の文字を探す
+                        final long remaining = bits >>> lane;
+                        if (remaining == 0) break;
+                        lane += Long.numberOfTrailingZeros(remaining);
+                        runStart = base + lane;
+                    } else {
+                        // 次の非16進数の文字を探す
+                        final long remaining = ~bits >>> lane & (allLanesMask() >>> lane);
+                        if (remaining == 0) break;
+                        lane += Long.numberOfTrailingZeros(remaining);
+                        count += HashChecker.emitHashParts(runStart, base + lane - runStart, consumer);
+                        runStart = -1;
+                    }
+                }
+            }
+
+            // ベクトルの幅に満たない末尾はスカラーで判定する
+            for (; i < chunkLength; i++) {
+                final boolean isHex = HashChecker.isHexChar(buffer[i]);
+                if (isHex && runStart < 0) {
+                    runStart = chunkStart + i;
+                } else if (!isHex && runStart >= 0) {
+                    count += HashChecker.emitHashParts(runStart, chunkStart + i - runStart, consumer);
+                    runStart = -1;
+                }
+            }
+        }
+
+        if (runStart >= 0) {
+            count += HashChecker.emitHashParts(runStart, end - runStart, consumer);
+        }
+        return count;
+    }
+
+    /**
+     * バッファの指定位置からレーン数分の文字を判定し、16進数の文字のレーンのビットを立てた値を返す
+     * charは符号付きのshortとして読まれるが、0x8000以上の文字は負になり範囲外と判定されるので問題ない
+     */
+    private static long classify(char[] buffer, int offset) {
+        final ShortVector v = ShortVector.fromCharArray(SPECIES, buffer, offset);
+        final VectorMask<Short> digit = v.compare(VectorOperators.GE, (short) '0')
+                .and(v.compare(VectorOperators.LE, (short) '9'));
+        final ShortVector lower = v.or((short) 0x20);
+        final VectorMask<Short> alpha = lower.compare(VectorOperators.GE, (short) 'a')
+                .and(lower.compare(VectorOperators.LE, (short) 'f'));
+        return digit.or(alpha).toLong();
+    }
+
+    private static long allLanesMask() {
+        return LANES == 64 ? -1L : (1L << LANES) - 1;
+    }
+
+    private static void copyChars(CharSequence s, int begin, int end, char[] dst) {
+        if (s instanceof String str) {
+            str.getChars(begin, end, dst, 0);
+        } else if (s instanceof StringBuilder builder) {
+            builder.getChars(begin, end, dst, 0);
+        } else {
+            for (int i = begin; i < end; i++) {
+                dst[i - begin] = s.charAt(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.getaji.bmshashwatcher.lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Vector API版の走査がスカラー版とPATTERN_PARTの検索に一致するかを確かめる差分テスト
+ * 実行時に --add-modules jdk.incubator.vector が必要
+ */
+class VectorHashScannerTest {
+    // 一致の境界になりやすい長さ（32と64で切り出す境目の前後）
+    private static final int[] RUN_LENGTHS = {
+            1, 31, 32, 33, 63, 64, 65, 95, 96, 97, 127, 128, 129, 160, 191, 192, 193
+    };
+    // 16進数の範囲の直前・直後の文字と、shortとして負になる文字
+    private static final char[] SEPARATORS = {
+            ' ', '/', ':', '@', 'G', '`', 'g', '\n', 'ー', '￿', '耰', 'İ'
+    };
+    private static final char[] HEX_CHARS = "0123456789abcdefABCDEF".toCharArray();
+    private static final int CHUNK_SIZE = 4096;
+
+    @Test
+    void runsCrossingChunkBoundary() {
+        for (final int runLength : RUN_LENGTHS) {
+            // 連続がチャンクの境界の前で終わる・境界をまたぐ・境界から始まる位置を全て試す
+            for (int shift = -runLength - 1; shift <= 1; shift++) {
+                final StringBuilder builder = new StringBuilder();
+                builder.append("x".repeat(CHUNK_SIZE + shift));
+                appendRun(builder, runLength, new Random(runLength));
+                builder.append('x');
+                builder.append("y".repeat(CHUNK_SIZE));
+                assertSameHits(builder.toString());
+            }
+        }
+    }
+
+    @Test
+    void runsSpanningWholeChunks() {
+        final Random random = new Random(1);
+        for (final int runLength : new int[]{CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1,
+                CHUNK_SIZE * 2 + 31, CHUNK_SIZE * 3 + 96}) {
+            final StringBuilder builder = new StringBuilder("z");
+            appendRun(builder, runLength, random);
+            assertSameHits(builder.toString());
+            // 末尾まで連続する場合
+            assertSameHits(builder.substring(1));
+        }
+    }
+
+    @Test
+    void greedySplitOfRunLengths() {
+        final StringBuilder builder = new StringBuilder();
+        final Random random = new Random(2);
+        for (int runLength = 1; runLength <= 260; runLength++) {
+            appendRun(builder, runLength, random);
+            builder.append(SEPARATORS[runLength % SEPARATORS.length]);
+        }
+        assertSameHits(builder.toString());
+    }
+
+    @Test
+    void randomInputs() {
+        final Random random = new Random(3);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            final StringBuilder builder = new StringBuilder();
+            final int targetLength = random.nextInt(CHUNK_SIZE * 4);
+            while (builder.length() < targetLength) {
+                if (random.nextInt(3) == 0) {
+                    appendRun(builder, RUN_LENGTHS[random.nextInt(RUN_LENGTHS.length)], random);
+                } else if (random.nextBoolean()) {
+                    appendRun(builder, random.nextInt(200), random);
+                }
+                builder.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+            assertSameHits(builder.toString());
+        }
+    }
+
+    @Test
+    void rangeAndCharSequenceTypes() {
+        final Random random = new Random(4);
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < CHUNK_SIZE * 3) {
+            appendRun(builder, 1 + random.nextInt(150), random);
+            builder.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        final String s = builder.toString();
+        for (final int start : new int[]{0, 1, 17, CHUNK_SIZE - 5}) {
+            for (final int end : new int[]{s.length(), s.length() - 3, CHUNK_SIZE * 2 + 7}) {
+                final List<String> expected = scalarHits(s, start, end);
+                assertEquals(expected, vectorHits(s, start, end));
+                assertEquals(expected, vectorHits(builder, start, end));
+                assertEquals(expected, vectorHits(CharBuffer.wrap(s), start, end));
+            }
+        }
+    }
+
+    @Test
+    void hashCheckerLoadsVectorScanner() {
+        assertTrue(HashChecker.isVectorScanEnabled());
+        final Random random = new Random(5);
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < HashChecker.VECTOR_SCAN_THRESHOLD + CHUNK_SIZE) {
+            appendRun(builder, 1 + random.nextInt(150), random);
+            builder.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        final String s = builder.toString();
+        final List<String> hits = new ArrayList<>();
+        HashChecker.scanHashParts(s, 0, s.length(), (offset, length, hashType) ->
+                hits.add(offset + ":" + s.substring(offset, offset + length)));
+        assertEquals(scalarHits(s, 0, s.length()), hits);
+    }
+
+    private static void assertSameHits(String s) {
+        final List<String> scalar = scalarHits(s, 0, s.length());
+        final List<String> regex = new ArrayList<>();
+        final Matcher matcher = HashChecker.PATTERN_PART.matcher(s);
+        while (matcher.find()) {
+            regex.add(matcher.start() + ":" + matcher.group());
+        }
+        assertEquals(regex, scalar);
+        assertEquals(scalar, vectorHits(s, 0, s.length()));
+        assertFalse(s.isEmpty());
+    }
+
+    private static List<String> scalarHits(CharSequence s, int start, int end) {
+        final List<String> hits = new ArrayList<>();
+        HashChecker.scanHashPartsScalar(s, start, end, (offset, length, hashType) ->
+                hits.add(offset + ":" + s.subSequence(offset, offset + length)));
+        return hits;
+    }
+
+    private static List<String> vectorHits(CharSequence s, int start, int end) {
+        final List<String> hits = new ArrayList<>();
+        final int count = VectorHashScanner.scanHashParts(s, start, end,
+                (offset, length, hashType) ->
+                        hits.add(offset + ":" + s.subSequence(offset, offset + length)));
+        assertEquals(hits.size(), count);
+        return hits;
+    }
+
+    private static void appendRun(StringBuilder builder, int length, Random random) {
+        for (int i = 0; i < length; i++) {
+            builder.append(HEX_CHARS[random.nextInt(HEX_CHARS.length)]);
+        }
+    }
+}